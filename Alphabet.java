@@ -0,0 +1,119 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.Arrays;
+
+
+//
+// The set of letters that may appear in the segments of a radix tree. Every
+// node has one child slot per letter, ordered like the letters themselves,
+// so that the tree keeps its segments in alphabetical order. The slot of a
+// letter is looked up in a table indexed by the character, which replaces
+// a linear String.indexOf search on every level of the tree.
+//
+public class Alphabet {
+
+    // Largest alphabet whose child mask and end of word bit fit into the
+    // int flags of a checkpoint node
+    static final int MAX_SIZE = 31;
+
+    public static final Alphabet DNA = new Alphabet("DNA", "ACGT");
+    public static final Alphabet RNA = new Alphabet("RNA", "ACGU");
+
+    // DNA with N for an unknown base
+    public static final Alphabet DNA_N = new Alphabet("DNA_N", "ACGNT");
+
+    // All IUPAC nucleotide letters: the DNA and RNA bases (T and U) and
+    // the ambiguity codes. 16 letters, so still 4 bits per base.
+    public static final Alphabet IUPAC =
+                            new Alphabet("IUPAC", "ABCDGHKMNRSTUVWY");
+
+    // The 20 standard amino acids
+    public static final Alphabet PROTEIN =
+                            new Alphabet("PROTEIN", "ACDEFGHIKLMNPQRSTVWY");
+
+    static final Alphabet[] KNOWN = { DNA, RNA, DNA_N, IUPAC, PROTEIN };
+
+    final String name;
+    final String symbols;     // The letters, in increasing order
+    final int    bitsPerSymbol;
+    final byte[] index = new byte[128];   // Child slot of a letter, or -1
+
+
+    /**
+     * Creates an alphabet.
+     * @param name A name for the alphabet
+     * @param symbols The letters, in increasing order and without repeats.
+     *                Only ASCII letters are supported.
+     */
+    public Alphabet(String name, String symbols)
+    {
+        if (symbols.isEmpty() || symbols.length() > MAX_SIZE)
+            throw new IllegalArgumentException("An alphabet has 1 to " +
+                                                    MAX_SIZE + " letters");
+
+        Arrays.fill(index, (byte) -1);
+        for (int i = 0; i < symbols.length(); i++)
+        {
+            char symbol = symbols.charAt(i);
+
+            if (symbol >= 128 || (i > 0 && symbol <= symbols.charAt(i - 1)))
+                throw new IllegalArgumentException("Letters of an alphabet " +
+                            "must be ASCII, sorted and unique: " + symbols);
+            index[symbol] = (byte) i;
+        }
+
+        this.name = name;
+        this.symbols = symbols;
+        this.bitsPerSymbol = Math.max(1,
+                        32 - Integer.numberOfLeadingZeros(symbols.length() - 1));
+    }
+
+
+    /**
+     * Returns the alphabet with the given name, ignoring case.
+     * @param name Name of one of the predefined alphabets
+     * @return The alphabet
+     */
+    public static Alphabet named(String name)
+    {
+        for (Alphabet alphabet : KNOWN)
+            if (alphabet.name.equalsIgnoreCase(name))
+                return alphabet;
+        throw new IllegalArgumentException("Unknown alphabet " + name);
+    }
+
+
+    /**
+     * Returns the child slot of a letter.
+     * @param symbol A character
+     * @return The position of symbol in the alphabet, or -1 if it is not
+     *         one of its letters
+     */
+    int indexOf(char symbol)
+    {
+        return symbol < 128 ? index[symbol] : -1;
+    }
+
+
+    /**
+     * Returns the number of letters, which is the number of children of
+     * every node.
+     * @return The size of the alphabet
+     */
+    int size()
+    {
+        return symbols.length();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return name + " (" + symbols + ")";
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+//
+// Compares loops of single findDNA and countOf calls against the batched
+// countAll with several group sizes, and prints the median of the rounds
+// with the speedup over the countOf loop. The tree should be much larger
+// than the last level cache, otherwise there are no cache misses to
+// overlap; the default of one million random segments takes a few hundred
+// megabytes.
+//
+// Usage: BatchLookupBenchmark [segments] [lookups] [rounds]
+//
+public class BatchLookupBenchmark {
+
+    public static void main(String[] args)
+    {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Random random = new Random(42);
+        RadixTree.Node tree = new RadixTree.Node();
+        tree.prefixCode = "";
+        String[] stored = new String[segments];
+
+        for (int i = 0; i < segments; i++)
+        {
+            stored[i] = RadixTree.generateRandomDNA(random);
+            RadixTree.insertDNA(stored[i], tree);
+        }
+
+        // Half of the reads are in the tree, half are random misses
+        String[] reads = new String[lookups];
+        for (int i = 0; i < lookups; i++)
+            reads[i] = random.nextBoolean()
+                            ? stored[random.nextInt(segments)]
+                            : RadixTree.generateRandomDNA(random);
+
+        int[] counts = new int[lookups];
+        int[] groups = { 1, 8, 16, 32 };
+        long[][] nanos = new long[groups.length + 2][rounds];
+        int hits = 0;
+
+        // The first round warms up the JIT and is not reported
+        for (int round = 0; round <= rounds; round++)
+        {
+            int r = Math.max(0, round - 1);
+
+            long start = System.nanoTime();
+            hits = 0;
+            for (int i = 0; i < lookups; i++)
+                if (RadixTree.findDNA(reads[i], tree))
+                    hits++;
+            nanos[0][r] = System.nanoTime() - start;
+
+            // The single descent that searchAll interleaves, one read at
+            // a time
+            start = System.nanoTime();
+            hits = 0;
+            for (int i = 0; i < lookups; i++)
+                if (RadixTree.countOf(reads[i], tree) > 0)
+                    hits++;
+            nanos[1][r] = System.nanoTime() - start;
+
+            for (int g = 0; g < groups.length; g++)
+            {
+                RadixTree.LOOKUP_GROUP = groups[g];
+                start = System.nanoTime();
+                hits = RadixTree.countAll(reads, counts, tree);
+                nanos[g + 2][r] = System.nanoTime() - start;
+            }
+        }
+        RadixTree.LOOKUP_GROUP = RadixTree.DEFAULT_LOOKUP_GROUP;
+
+        // Medians, and the speedup over the single descent loop
+        long single = median(nanos[1]);
+        System.out.println("method,group,nsPerLookup,speedup,hits");
+        print("findDNA", 1, median(nanos[0]), single, lookups, hits);
+        print("countOf", 1, single, single, lookups, hits);
+        for (int g = 0; g < groups.length; g++)
+            print("countAll", groups[g], median(nanos[g + 2]), single,
+                                                            lookups, hits);
+    }
+
+
+    static long median(long[] nanos)
+    {
+        long[] sorted = nanos.clone();
+
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+
+    static void print(String method, int group, long nanos, long single,
+                                                        int lookups, int hits)
+    {
+        System.out.printf("%s,%d,%.1f,%.2f,%d%n", method, group,
+                    (double) nanos / lookups, (double) single / nanos, hits);
+    }
+}
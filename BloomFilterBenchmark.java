@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.Random;
+
+
+//
+// Compares findDNA on the tree alone with findDNA through a DnaBloomFilter
+// for query mixes with 0%, 5%, 50% and 95% hits, and reports the observed
+// false positive rate for several configured rates.
+//
+// Usage: BloomFilterBenchmark [segments] [lookups]
+//
+public class BloomFilterBenchmark {
+
+    public static void main(String[] args)
+    {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        Random random = new Random(42);
+        RadixTree.Node tree = new RadixTree.Node();
+        tree.prefixCode = "";
+        String[] stored = new String[segments];
+
+        for (int i = 0; i < segments; i++)
+        {
+            stored[i] = RadixTree.generateRandomDNA(random);
+            RadixTree.insertDNA(stored[i], tree);
+        }
+
+        double[] hitRatios = { 0.0, 0.05, 0.5, 0.95 };
+        double[] falsePositiveRates = { 0.1, 0.01, 0.001 };
+
+        System.out.println("hitRatio,configuredFpp,filterBytes," +
+                    "treeNsPerLookup,filterNsPerLookup,observedFpp");
+
+        for (double hitRatio : hitRatios)
+        {
+            String[] reads = new String[lookups];
+            for (int i = 0; i < lookups; i++)
+                reads[i] = random.nextDouble() < hitRatio
+                            ? stored[random.nextInt(segments)]
+                            : RadixTree.generateRandomDNA(random);
+
+            for (double falsePositiveRate : falsePositiveRates)
+            {
+                DnaBloomFilter filter = DnaBloomFilter.attach(tree, segments,
+                                                        falsePositiveRate);
+                long treeNanos = Long.MAX_VALUE;
+                long filterNanos = Long.MAX_VALUE;
+
+                // Best of three runs; the first one also warms up the JIT
+                for (int run = 0; run < 3; run++)
+                {
+                    long start = System.nanoTime();
+                    for (String read : reads)
+                        RadixTree.findDNA(read, tree);
+                    treeNanos = Math.min(treeNanos, System.nanoTime() - start);
+
+                    filter.lookups = filter.rejected = 0;
+                    filter.falsePositives = 0;
+                    start = System.nanoTime();
+                    for (String read : reads)
+                        filter.findDNA(read);
+                    filterNanos = Math.min(filterNanos,
+                                                System.nanoTime() - start);
+                }
+
+                System.out.printf("%.2f,%.3f,%d,%.1f,%.1f,%.4f%n", hitRatio,
+                        falsePositiveRate, filter.sizeInBytes(),
+                        (double) treeNanos / lookups,
+                        (double) filterNanos / lookups,
+                        filter.observedFalsePositiveRate());
+                filter.detach();
+            }
+        }
+    }
+}
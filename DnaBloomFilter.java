@@ -0,0 +1,291 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+
+//
+// Blocked Bloom filter in front of a radix tree. Most lookups in a
+// screening workload miss, and a miss in the tree still walks several
+// levels of childNode pointers. The filter answers "definitely not in the
+// tree" for most misses by reading a single 64 byte block (one cache line)
+// selected by DnaCodec.hash64 of the segment; only lookups that pass the
+// filter go on to the tree.
+//
+// Once a filter is attached to a tree, RadixTree.insertDNA sets the bits
+// of every segment it inserts, like it keeps the query cache and the
+// change feed up to date. So the filter also sees the writes of setCount,
+// applyDelta, log replay and the server. A Bloom filter cannot clear bits,
+// so deletes leave their bits behind: the filter stays correct (it never
+// rejects a segment that is in the tree) but gets more false positives.
+// Once the deletes since the last rebuild exceed a quarter of the segments
+// in the tree, or the tree outgrows the capacity of the filter, the filter
+// is rebuilt from the tree.
+//
+// Only one tree can have a filter at a time.
+//
+public class DnaBloomFilter {
+
+    static final int BLOCK_WORDS = 8;                 // 8 longs = 64 bytes
+    static final int BLOCK_BITS = BLOCK_WORDS * 64;
+    static final int MAX_HASHES = 16;
+
+    final RadixTree.Node tree;
+    final double falsePositiveRate;
+
+    long[] bits;
+    int  blocks;
+    int  hashes;              // Bits set per segment
+    long capacity;            // Segments the filter was sized for
+    long deletesSinceRebuild;
+
+    // Statistics
+    long lookups;
+    long rejected;            // Lookups answered by the filter alone
+    long falsePositives;      // Passed the filter, but not in the tree
+
+
+    /**
+     * Creates a filter for tree and adds the segments already in it. The
+     * filter is not kept up to date until it is attached.
+     */
+    DnaBloomFilter(RadixTree.Node tree, long expectedSegments,
+                                                    double falsePositiveRate)
+    {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException(
+                        "False positive rate must be between 0 and 1");
+
+        this.tree = tree;
+        this.falsePositiveRate = falsePositiveRate;
+        allocate(Math.max(expectedSegments, RadixTree.keysInSubtree(tree)));
+        addAll(tree, new StringBuilder());
+    }
+
+
+    /**
+     * Attaches a new filter to a tree, replacing the filter of any other
+     * tree, and adds the segments already in the tree.
+     * @param tree The root node of a radix tree
+     * @param expectedSegments Number of unique segments the tree is
+     *                         expected to hold
+     * @param falsePositiveRate Target fraction of misses that pass the
+     *                          filter, eg, 0.01
+     * @return The filter
+     */
+    public static DnaBloomFilter attach(RadixTree.Node tree,
+                            long expectedSegments, double falsePositiveRate)
+    {
+        DnaBloomFilter filter = new DnaBloomFilter(tree, expectedSegments,
+                                                        falsePositiveRate);
+
+        RadixTree.bloomFilter = filter;
+        return filter;
+    }
+
+
+    /**
+     * Detaches the filter from its tree. It is no longer kept up to date,
+     * so findDNA must not be called on it afterwards.
+     */
+    public void detach()
+    {
+        if (RadixTree.bloomFilter == this)
+            RadixTree.bloomFilter = null;
+    }
+
+
+    /**
+     * Sizes the bit array with the usual Bloom filter formulas: m = -n ln p
+     * / (ln 2)^2 bits and k = m/n ln 2 hash functions. Keeping all k bits
+     * in one block makes the filter a little less accurate than a classic
+     * Bloom filter of the same size, so a fifth more bits are used.
+     */
+    void allocate(long segments)
+    {
+        long n = Math.max(segments, 1);
+        double m = -n * Math.log(falsePositiveRate)
+                                            / (Math.log(2) * Math.log(2));
+
+        m = m * 1.2;
+        blocks = (int) Math.min(Math.max((long) Math.ceil(m / BLOCK_BITS), 1),
+                                            Integer.MAX_VALUE / BLOCK_WORDS);
+        bits = new long[blocks * BLOCK_WORDS];
+        hashes = (int) Math.max(1, Math.min(MAX_HASHES,
+                                    Math.round(m / n * Math.log(2))));
+        capacity = n;
+        deletesSinceRebuild = 0;
+    }
+
+
+    /**
+     * Returns false if nucleotide is certainly not in the tree. true means
+     * that it may be in the tree.
+     * @param nucleotide A DNA segment
+     * @return Whether the segment may be in the tree
+     */
+    public boolean mightContain(CharSequence nucleotide)
+    {
+        long hash = DnaCodec.hash64(nucleotide);
+        int  block = blockOf(hash);
+        int  h1 = (int) hash;
+        int  h2 = (int) (hash >>> 32) | 1;
+
+        for (int i = 0; i < hashes; i++)
+        {
+            int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+            if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+
+    void add(CharSequence nucleotide)
+    {
+        long hash = DnaCodec.hash64(nucleotide);
+        int  block = blockOf(hash);
+        int  h1 = (int) hash;
+        int  h2 = (int) (hash >>> 32) | 1;
+
+        for (int i = 0; i < hashes; i++)
+        {
+            int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+            bits[block + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+
+    // Maps the high bits of the hash onto [0, blocks) without a division
+    // and returns the index of the first word of the block
+    int blockOf(long hash)
+    {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+    }
+
+
+    /**
+     * Inserts a DNA segment into the tree, and so into the filter.
+     * @param nucleotide A string denoting a DNA segment
+     * @return true if the segment was inserted; false if it is empty or has
+     *         letters outside the alphabet
+     */
+    public boolean insertDNA(String nucleotide)
+    {
+        return RadixTree.insertDNA(nucleotide, tree);
+    }
+
+
+    /**
+     * Sets the bits of a segment that was inserted into the tree. Called
+     * from RadixTree.insertDNA, only for valid segments.
+     * @param nucleotide The segment inserted
+     */
+    void inserted(String nucleotide)
+    {
+        if (RadixTree.keysInSubtree(tree) > capacity)
+            rebuild();
+        else
+            add(nucleotide);
+    }
+
+
+    /**
+     * Finds a DNA segment, asking the filter before the tree.
+     * @param nucleotide A DNA segment to be searched
+     * @return true if the segment is in the tree; else false
+     */
+    public boolean findDNA(String nucleotide)
+    {
+        lookups++;
+        if (!mightContain(nucleotide))
+        {
+            rejected++;
+            return false;
+        }
+
+        boolean found = RadixTree.findDNA(nucleotide, tree);
+        if (!found)
+            falsePositives++;
+        return found;
+    }
+
+
+    /**
+     * Deletes a DNA segment from the tree. The filter is rebuilt once enough
+     * deletes have piled up.
+     * @param nucleotide A DNA segment to be deleted
+     * @return true if the segment was found and deleted; else false
+     */
+    public boolean deleteDNA(String nucleotide)
+    {
+        return RadixTree.deleteDNA(nucleotide, tree);
+    }
+
+
+    /**
+     * Counts a delete from the tree and rebuilds the filter once enough of
+     * them have piled up. Called from RadixTree.deleteDNA.
+     */
+    void deleted()
+    {
+        if (++deletesSinceRebuild > RadixTree.keysInSubtree(tree) / 4 + 1024)
+            rebuild();
+    }
+
+
+    /**
+     * Rebuilds the filter from the segments currently in the tree, sized
+     * for twice as many segments so that the tree can keep growing.
+     */
+    public void rebuild()
+    {
+        allocate(2L * RadixTree.keysInSubtree(tree));
+        addAll(tree, new StringBuilder());
+    }
+
+
+    // Adds every segment in the subtree, reusing one buffer for the keys
+    void addAll(RadixTree.Node node, StringBuilder dnaSegment)
+    {
+        if (node == null)
+            return;
+
+        int length = dnaSegment.length();
+        if (node.prefixCode != null)
+            dnaSegment.append(node.prefixCode);
+        if (node.endOfDNA)
+            add(dnaSegment);
+
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            if (RadixTree.keysInSubtree(node.childNode[i]) > 0)
+                addAll(node.childNode[i], dnaSegment);
+
+        dnaSegment.setLength(length);
+    }
+
+
+    /**
+     * Returns the fraction of lookups that the filter let through although
+     * the segment was not in the tree, out of all lookups of segments not
+     * in the tree.
+     * @return The observed false positive rate
+     */
+    public double observedFalsePositiveRate()
+    {
+        long misses = rejected + falsePositives;
+        return misses == 0 ? 0 : (double) falsePositives / misses;
+    }
+
+
+    /**
+     * Returns the size of the bit array in bytes.
+     * @return Bytes used by the filter
+     */
+    public long sizeInBytes()
+    {
+        return 8L * bits.length;
+    }
+}
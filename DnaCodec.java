@@ -0,0 +1,228 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+
+//
+// Compact binary encoding of DNA segments. Every letter is stored as its
+// index in the alphabet of the tree, using as few bits as the alphabet
+// needs. For DNA every base takes 2 bits, so four bases are packed into
+// one byte: A = 00, C = 01, G = 10 and T = 11, which is the same order as
+// the children of a Node. The first base of a segment goes into the lowest
+// bits of the first byte.
+//
+public class DnaCodec {
+
+    /**
+     * Returns the number of bytes needed to pack a segment of dnaLen bases.
+     * @param dnaLen Length of a DNA segment
+     * @return Number of bytes of the packed segment
+     */
+    static int packedLength(int dnaLen)
+    {
+        return (int) (((long) dnaLen * RadixTree.alphabet.bitsPerSymbol + 7)
+                                                                        / 8);
+    }
+
+
+    /**
+     * Packs a DNA segment made up of letters of the alphabet, eg, A, C, G
+     * or T, into bitsPerSymbol bits per base.
+     * @param nucleotide A valid DNA segment
+     * @return The packed bases; the length is not part of the result
+     */
+    static byte[] pack(String nucleotide)
+    {
+        Alphabet alphabet = RadixTree.alphabet;
+        int  bits = alphabet.bitsPerSymbol;
+        int  dnaLen = nucleotide.length();
+        byte[] packed = new byte[packedLength(dnaLen)];
+        long pending = 0;         // Bits not yet stored in packed
+        int  pendingBits = 0;
+        int  out = 0;
+
+        for (int i = 0; i < dnaLen; i++)
+        {
+            pending |= (long) alphabet.indexOf(nucleotide.charAt(i))
+                                                            << pendingBits;
+            pendingBits += bits;
+            while (pendingBits >= 8)
+            {
+                packed[out++] = (byte) pending;
+                pending >>>= 8;
+                pendingBits -= 8;
+            }
+        }
+        if (pendingBits > 0)
+            packed[out] = (byte) pending;
+        return packed;
+    }
+
+
+    /**
+     * Reverses pack. Returns the first dnaLen bases stored in packed,
+     * starting at offset.
+     * @param packed Packed bases
+     * @param offset Index of the first byte of the segment in packed
+     * @param dnaLen Number of bases to unpack
+     * @return The DNA segment
+     */
+    static String unpack(byte[] packed, int offset, int dnaLen)
+    {
+        Alphabet alphabet = RadixTree.alphabet;
+        int  bits = alphabet.bitsPerSymbol;
+        int  mask = (1 << bits) - 1;
+        char[] bases = new char[dnaLen];
+        long pending = 0;
+        int  pendingBits = 0;
+
+        for (int i = 0; i < dnaLen; i++)
+        {
+            while (pendingBits < bits)
+            {
+                pending |= (long) (packed[offset++] & 0xFF) << pendingBits;
+                pendingBits += 8;
+            }
+            bases[i] = alphabet.symbols.charAt((int) pending & mask);
+            pending >>>= bits;
+            pendingBits -= bits;
+        }
+        return new String(bases);
+    }
+
+
+    /**
+     * Returns a 64 bit hash of a DNA segment. The bases are packed like in
+     * pack (2 bits each for DNA) into 64 bit words, 32 DNA bases per word,
+     * and the words are mixed with the finalizer of MurmurHash3. Characters
+     * which are not letters of the alphabet all hash alike; they never
+     * occur in the tree, so at worst they cost a false positive.
+     * @param nucleotide A DNA segment
+     * @return The hash of nucleotide
+     */
+    static long hash64(CharSequence nucleotide)
+    {
+        Alphabet alphabet = RadixTree.alphabet;
+        int  bits = alphabet.bitsPerSymbol;
+        int  mask = (1 << bits) - 1;
+        int  perWord = 64 / bits;
+        int  dnaLen = nucleotide.length();
+        long hash = 0x9E3779B97F4A7C15L ^ dnaLen;
+        long word = 0;
+        int  inWord = 0;
+
+        for (int i = 0; i < dnaLen; i++)
+        {
+            int code = alphabet.indexOf(nucleotide.charAt(i)) & mask;
+            word = (word << bits) | code;
+            if (++inWord == perWord)
+            {
+                hash = Long.rotateLeft(hash ^ mix64(word), 27)
+                                                    * 0x9E3779B97F4A7C15L;
+                word = 0;
+                inWord = 0;
+            }
+        }
+        return mix64(hash ^ mix64(word ^ ((long) dnaLen << 56)));
+    }
+
+
+    // Finalizer of MurmurHash3; spreads every input bit over the output
+    static long mix64(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+
+    /**
+     * Writes a non negative int using 7 bits per byte, so that small values
+     * such as counts and the length of short segments take a single byte.
+     * @param out Output to write to
+     * @param value A non negative value
+     * @throws IOException If out cannot be written
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+
+    /**
+     * Same as writeVarInt(DataOutput, int), writing into a buffer.
+     * @param out Buffer to write to
+     * @param value A non negative value
+     */
+    static void writeVarInt(ByteBuffer out, int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+
+    /**
+     * Reads an int written by writeVarInt.
+     * @param in Input to read from
+     * @return The value
+     * @throws IOException If in cannot be read or the value is malformed
+     */
+    static int readVarInt(DataInput in) throws IOException
+    {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException(
+                                    "Malformed variable length integer");
+    }
+
+
+    /**
+     * Same as readVarInt(DataInput), reading from a buffer. A buffer that
+     * ends in the middle of the value raises BufferUnderflowException.
+     * @param in Buffer to read from
+     * @return The value
+     * @throws IOException If the value is malformed
+     */
+    static int readVarInt(ByteBuffer in) throws IOException
+    {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException(
+                                    "Malformed variable length integer");
+    }
+}
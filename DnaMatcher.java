@@ -0,0 +1,161 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+
+//
+// Kernels that find the first base where two DNA segments differ. This is
+// the innermost loop of every tree operation, through commonPrefixLength.
+//
+// A String does not expose its chars, so short strings are compared one
+// char at a time. Longer strings are copied in blocks into per-thread char
+// arrays with String.getChars and compared with Arrays.mismatch, which the
+// JIT turns into a vectorized loop that checks 8 to 32 bases per step.
+// The comparison is exact for any chars, so segments do not need to be
+// checked for invalid bases first.
+//
+// The copy only pays for itself on long labels. DnaMatcherBenchmark puts
+// the break even point near 100 bases: below it, the char at a time loop
+// is faster than the copy, and also faster than String.regionMatches or
+// than packing four chars into a long per step.
+//
+// Segments that are already bytes or packed (DnaCodec) are compared
+// without a copy: bytes with Arrays.mismatch, and packed bases 64 bits at
+// a time (32 DNA bases) with an XOR whose trailing zeros give the first
+// differing base.
+//
+public class DnaMatcher {
+
+    // Below this many bases the copy costs more than it saves
+    static final int SCALAR_LIMIT = 96;
+
+    // Bases copied and compared per step for long strings
+    static final int BLOCK = 256;
+
+    static final ThreadLocal<char[][]> SCRATCH =
+                ThreadLocal.withInitial(() -> new char[][] {
+                                        new char[BLOCK], new char[BLOCK] });
+
+    static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(
+                                long[].class, ByteOrder.LITTLE_ENDIAN);
+
+
+    /**
+     * Returns the number of leading bases that two regions of strings have
+     * in common.
+     * Eg: commonPrefix("ACGT", 0, "ACTT", 0, 4) = 2
+     * @param a A DNA segment
+     * @param aFrom Index of the first base of the region in a
+     * @param b Another DNA segment
+     * @param bFrom Index of the first base of the region in b
+     * @param length Number of bases to compare; both regions must be at
+     *               least this long
+     * @return The length of the common prefix, between 0 and length
+     */
+    static int commonPrefix(String a, int aFrom, String b, int bFrom,
+                                                                int length)
+    {
+        if (length < SCALAR_LIMIT)
+        {
+            for (int i = 0; i < length; i++)
+                if (a.charAt(aFrom + i) != b.charAt(bFrom + i))
+                    return i;
+            return length;
+        }
+        return blockPrefix(a, aFrom, b, bFrom, length);
+    }
+
+
+    /**
+     * Same as commonPrefix, always comparing blocks of chars with
+     * Arrays.mismatch.
+     */
+    static int blockPrefix(String a, int aFrom, String b, int bFrom,
+                                                                int length)
+    {
+        char[][] scratch = SCRATCH.get();
+        for (int done = 0; done < length; done = done + BLOCK)
+        {
+            int block = Math.min(BLOCK, length - done);
+
+            a.getChars(aFrom + done, aFrom + done + block, scratch[0], 0);
+            b.getChars(bFrom + done, bFrom + done + block, scratch[1], 0);
+            int mismatch = Arrays.mismatch(scratch[0], 0, block,
+                                                    scratch[1], 0, block);
+            if (mismatch >= 0)
+                return done + mismatch;
+        }
+        return length;
+    }
+
+
+    /**
+     * Returns the index of the first base where two regions of byte arrays
+     * differ, like Arrays.mismatch.
+     * @param a Bases, one per byte
+     * @param aFrom Index of the first base of the region in a
+     * @param b Other bases, one per byte
+     * @param bFrom Index of the first base of the region in b
+     * @param length Number of bases to compare
+     * @return The offset of the first difference within the regions, or -1
+     *         if they are equal
+     */
+    static int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length)
+    {
+        return Arrays.mismatch(a, aFrom, aFrom + length,
+                                                b, bFrom, bFrom + length);
+    }
+
+
+    /**
+     * Returns the index of the first base where two segments packed by
+     * DnaCodec.pack differ. Both start at the first byte of their arrays.
+     * @param a Packed bases
+     * @param b Other packed bases
+     * @param bases Number of bases to compare; both arrays must hold at
+     *              least this many
+     * @return The index of the first differing base, or -1 if the first
+     *         bases bases are equal
+     */
+    static int mismatchPacked(byte[] a, byte[] b, int bases)
+    {
+        int bits = RadixTree.alphabet.bitsPerSymbol;
+        int perLong = 64 / bits;
+        long totalBits = (long) bases * bits;
+        int fullLongs = (int) (totalBits / 64);
+        int i = 0;
+
+        // Whole words of 64 bits. A base never straddles two words when
+        // bits divides 64, which holds for 1, 2 and 4 bits per base.
+        if (64 % bits == 0)
+            for (; i < fullLongs; i++)
+            {
+                long diff = (long) LONGS.get(a, i * 8) ^
+                                                (long) LONGS.get(b, i * 8);
+                if (diff != 0)
+                    return i * perLong +
+                                    Long.numberOfTrailingZeros(diff) / bits;
+            }
+
+        // The remaining bases, a byte at a time
+        long bit = (long) i * 64;
+        for (int j = i * 8; bit < totalBits; j++, bit = bit + 8)
+        {
+            int diff = (a[j] ^ b[j]) & 0xFF;
+            if (totalBits - bit < 8)
+                diff = diff & ((1 << (totalBits - bit)) - 1);
+            if (diff != 0)
+                return (int) ((bit + Integer.numberOfTrailingZeros(diff))
+                                                                    / bits);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+
+//
+// Compares the prefix comparison of DnaMatcher with the char at a time
+// loop that commonPrefixLength used before, for labels of 4 to 1000
+// bases. blockPrefix is the block comparison without the scalar loop for
+// short labels; where it overtakes charLoop is where SCALAR_LIMIT
+// belongs. The same pairs are also compared as one byte per base with
+// mismatch, and packed by DnaCodec with mismatchPacked. Half of the pairs
+// are equal and half differ at a random base. Every kernel is run for
+// several rounds and the best round is reported, so the first rounds warm
+// up the JIT.
+//
+// Usage: DnaMatcherBenchmark [comparisons] [rounds]
+//
+public class DnaMatcherBenchmark {
+
+    static final int PAIRS = 1024;
+
+    // Keeps the JIT from dropping the comparisons
+    static long sink;
+
+    public static void main(String[] args)
+    {
+        int comparisons = args.length > 0
+                                    ? Integer.parseInt(args[0]) : 2000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int[] lengths = { 4, 8, 16, 24, 32, 64, 128, 1000 };
+
+        System.out.println("bases,charLoopNs,blockPrefixNs,commonPrefixNs," +
+                                            "byteMismatchNs,packedMismatchNs");
+        for (int length : lengths)
+            run(length, comparisons, rounds);
+    }
+
+
+    static void run(int length, int comparisons, int rounds)
+    {
+        Random random = new Random(42);
+        String symbols = RadixTree.alphabet.symbols;
+        String[] a = new String[PAIRS];
+        String[] b = new String[PAIRS];
+        byte[][] aBytes = new byte[PAIRS][];
+        byte[][] bBytes = new byte[PAIRS][];
+        byte[][] aPacked = new byte[PAIRS][];
+        byte[][] bPacked = new byte[PAIRS][];
+
+        for (int i = 0; i < PAIRS; i++)
+        {
+            char[] bases = new char[length];
+            for (int j = 0; j < length; j++)
+                bases[j] = symbols.charAt(random.nextInt(symbols.length()));
+            a[i] = new String(bases);
+
+            if (random.nextBoolean())
+            {
+                int j = random.nextInt(length);
+                bases[j] = symbols.charAt((RadixTree.baseIndex(bases[j]) + 1)
+                                                        % symbols.length());
+            }
+            b[i] = new String(bases);
+
+            aBytes[i] = a[i].getBytes(StandardCharsets.ISO_8859_1);
+            bBytes[i] = b[i].getBytes(StandardCharsets.ISO_8859_1);
+            aPacked[i] = DnaCodec.pack(a[i]);
+            bPacked[i] = DnaCodec.pack(b[i]);
+        }
+
+        long[] best = new long[5];
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int round = 0; round < rounds; round++)
+            for (int kernel = 0; kernel < best.length; kernel++)
+            {
+                long start = System.nanoTime();
+                for (int n = 0; n < comparisons; n++)
+                {
+                    int i = n & (PAIRS - 1);
+                    switch (kernel)
+                    {
+                        case 0:
+                            sink += charLoop(a[i], b[i], length);
+                            break;
+                        case 1:
+                            sink += DnaMatcher.blockPrefix(a[i], 0, b[i], 0,
+                                                                    length);
+                            break;
+                        case 2:
+                            sink += DnaMatcher.commonPrefix(a[i], 0, b[i], 0,
+                                                                    length);
+                            break;
+                        case 3:
+                            sink += DnaMatcher.mismatch(aBytes[i], 0,
+                                                    bBytes[i], 0, length);
+                            break;
+                        default:
+                            sink += DnaMatcher.mismatchPacked(aPacked[i],
+                                                        bPacked[i], length);
+                    }
+                }
+                best[kernel] = Math.min(best[kernel],
+                                                System.nanoTime() - start);
+            }
+
+        System.out.printf("%d,%.1f,%.1f,%.1f,%.1f,%.1f%n", length,
+                    (double) best[0] / comparisons,
+                    (double) best[1] / comparisons,
+                    (double) best[2] / comparisons,
+                    (double) best[3] / comparisons,
+                    (double) best[4] / comparisons);
+    }
+
+
+    // The loop of commonPrefixLength before DnaMatcher
+    static int charLoop(String a, String b, int length)
+    {
+        for (int i = 0; i < length; i++)
+            if (a.charAt(i) != b.charAt(i))
+                return i;
+        return length;
+    }
+}
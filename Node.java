@@ -8,12 +8,17 @@ package radixtree;
 
 public class Node {
    
-    static int MAX_CHILDREN = 4;   // A child could be one of A, C, G, or T.
+    // A child for every letter of the alphabet, eg, one of A, C, G, or T.
+    static int MAX_CHILDREN = RadixTree.alphabet.size();
     boolean endOfDNA; // Indicates if this node marks the end of a DNA segment
     int countOfDNA;   // Maintains the count of DNA segments
+    int keysInSubtree; // Count of unique DNA segments in this subtree
+    int maxCountInSubtree; // Largest countOfDNA of a segment in this subtree
+    long subtreeHash;  // Hash of the labels and counts of this subtree
         
-    // Every node can have at most 4 children. They could be either
-    // a single character or a larger string consisting of A, C, G, and T.
+    // Every node can have one child per letter of the alphabet; for DNA that
+    // is at most 4 children. They could be either a single character or a
+    // larger string consisting of A, C, G, and T.
     // Node[0] = "A..."; 
     // Node[1] = "C..."; 
     // Node[2] = "G..."; and 
@@ -24,7 +29,10 @@ public class Node {
     Node(){
         endOfDNA = false;
         countOfDNA = 0;
-        for (int i = 0; i < 4; i++)
+        keysInSubtree = 0;
+        maxCountInSubtree = 0;
+        subtreeHash = 0;
+        for (int i = 0; i < MAX_CHILDREN; i++)
             childNode[i] = null;
     }
 }
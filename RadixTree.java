@@ -10,22 +10,37 @@
 
 package radixtree;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 public class RadixTree {
 
     static class Node {
    
-    static int MAX_CHILDREN = 4;   // A child could be one of A, C, G, or T.
+    // A child for every letter of the alphabet, eg, one of A, C, G, or T.
+    static int MAX_CHILDREN = RadixTree.alphabet.size();
     boolean endOfDNA; // Indicates if this node marks the end of a DNA segment
     int countOfDNA;   // Maintains the count of DNA segments
+    int keysInSubtree; // Count of unique DNA segments in this subtree
+    int maxCountInSubtree; // Largest countOfDNA of a segment in this subtree
+    long subtreeHash;  // Hash of the labels and counts of this subtree
         
-    // Every node can have at most 4 children. They could be either
-    // a single character or a larger string consisting of A, C, G, and T.
+    // Every node can have one child per letter of the alphabet; for DNA that
+    // is at most 4 children. They could be either a single character or a
+    // larger string consisting of A, C, G, and T.
     // Node[0] = "A..."; 
     // Node[1] = "C..."; 
     // Node[2] = "G..."; and 
@@ -36,18 +51,56 @@ public class RadixTree {
     Node(){
         endOfDNA = false;
         countOfDNA = 0;
-        for (int i = 0; i < 4; i++)
+        keysInSubtree = 0;
+        maxCountInSubtree = 0;
+        subtreeHash = 0;
+        for (int i = 0; i < MAX_CHILDREN; i++)
             childNode[i] = null;
         }
     }
 
     static Node root; 
+    
+    // Write-ahead log of the tree built from the user menu, or null if the
+    // tree is only kept in memory
+    //
+    static RadixTreeLog treeLog;
+    
+    // Feed that publishes the inserts and deletes of one tree, or null
+    //
+    static RadixTreeChangeFeed changeFeed;
+    
+    // Cache of query results of one tree, or null
+    //
+    static RadixTreeCache queryCache;
+    
+    // Bloom filter of the segments of one tree, or null
+    //
+    static DnaBloomFilter bloomFilter;
      
-    // Only allowed characters in our radix tree are 'A', 'C', 'G' and 'T',
-    // which corresponds to the 4 DNA bases
+    // Only allowed characters in our radix tree are the letters of the
+    // alphabet. By default these are 'A', 'C', 'G' and 'T', which
+    // corresponds to the 4 DNA bases. Another alphabet can be chosen with
+    // -Dradixtree.alphabet=RNA, DNA_N, IUPAC or PROTEIN, or setAlphabet.
     //
-    static String dnaBases = "ACGT";
-    static int MAX_CHILDREN = 4;
+    static Alphabet alphabet = 
+            Alphabet.named(System.getProperty("radixtree.alphabet", "DNA"));
+    static int MAX_CHILDREN = alphabet.size();
+    
+    
+    /**
+     * Changes the alphabet of the radix trees. Nodes are sized for the
+     * alphabet when they are created, so this must be done before any tree
+     * is built; trees built with another alphabet can no longer be used.
+     * @param newAlphabet The letters allowed in DNA segments
+     */
+    static void setAlphabet(Alphabet newAlphabet)
+    {
+        alphabet = newAlphabet;
+        MAX_CHILDREN = newAlphabet.size();
+        Node.MAX_CHILDREN = newAlphabet.size();
+    }
+    
         
    /**
     * Returns the length of the common prefix between the nucleotide string
@@ -71,23 +124,26 @@ public class RadixTree {
         else
             prefixLen = treeNode.prefixCode.length();
        
-        for (int i = 0; i < dnaLen; i++)
-            if (i == prefixLen || 
-                    nucleotide.charAt(i) != treeNode.prefixCode.charAt(i))
-                return i;
-       
-        // nucleotide completely matches with the prefixCode
-        return dnaLen;
+        // Compare as many bases as both strings have; DnaMatcher checks
+        // long strings many bases at a time
+        int length = Math.min(dnaLen, prefixLen);
+        int matched = DnaMatcher.commonPrefix(nucleotide, 0, 
+                                        treeNode.prefixCode, 0, length);
        
+        if (RadixTreeMetrics.ENABLED)
+            RadixTreeMetrics.basesCompared.add(
+                                matched < length ? matched + 1 : matched);
+        return matched;
     }
    
    
     /**
-     * Check if the incoming nucleotide consists only of bases A, C, G or T.
-     * If not, we should not add it to our radix tree. 
+     * Check if the incoming nucleotide consists only of letters of the
+     * alphabet, eg, bases A, C, G or T. If not, we should not add it to our
+     * radix tree. 
      * @param nucleotide A DNA segment, assumed to contain only A, C, G or T.
-     * @return true if nucleotide only consists of bases A, C, G or T; else
-     *         returns false.
+     * @return true if nucleotide contains a letter outside the alphabet or
+     *         is empty; else returns false.
      */
     static boolean invalidBaseFound(String nucleotide)
     {
@@ -96,18 +152,36 @@ public class RadixTree {
         if (dnaLen == 0)  // Do not add an empty string to tree
             return true;
         
-        for (int i = 0; i < dnaLen; i++)
-            if (dnaBases.indexOf(nucleotide.charAt(i)) == -1)
-            {
-                System.out.println("Invalid base " +  
-                                nucleotide.charAt(i) + " found in input!");
-                System.out.println("Only letters 'A', 'C', 'G', and 'T' are found in DNA");
-                return true;
-            }
+        int i = invalidBaseIndex(nucleotide);
+        if (i >= 0)
+        {
+            System.out.println("Invalid base " +  
+                            nucleotide.charAt(i) + " found in input!");
+            System.out.println("Only letters " + alphabet.symbols + 
+                                            " are allowed in the tree");
+            return true;
+        }
         return false;
     }
     
     
+    /**
+     * Finds the first letter of nucleotide that is not in the alphabet.
+     * Unlike invalidBaseFound, it prints nothing, for the query methods
+     * which report invalid input through their result.
+     * @param nucleotide A DNA segment
+     * @return The index of the first letter outside the alphabet, or -1 if
+     *         there is none
+     */
+    static int invalidBaseIndex(String nucleotide)
+    {
+        for (int i = 0; i < nucleotide.length(); i++)
+            if (baseIndex(nucleotide.charAt(i)) == -1)
+                return i;
+        return -1;
+    }
+    
+    
     /**
      * Return the length of the prefix code corresponding to node. If node is
      * null or prefix code is an empty string, return 0
@@ -121,8 +195,65 @@ public class RadixTree {
         else
             return 0;
     }
-    
-    
+
+
+    /**
+     * Return the number of unique DNA segments stored in the subtree rooted
+     * at node. If node is null, return 0
+     * @param node  A node in radix tree
+     * @return The count of unique DNA segments below (and including) node
+     */
+    static int keysInSubtree(Node node)
+    {
+        if (node != null)
+            return node.keysInSubtree;
+        else
+            return 0;
+    }
+
+
+    /**
+     * Recomputes the subtree annotations of a node from its own state and
+     * the annotations of its children. It must be called bottom up on every
+     * node whose prefixCode, children, end of word state or count changed,
+     * so that the annotations stay exact after each insert or delete.
+     * 
+     * subtreeHash covers the prefixCode and count of the node and the
+     * hashes of its children, so two subtrees with the same hash hold the
+     * same segments with the same counts (RadixTreeDelta). Removed children
+     * (keysInSubtree 0) do not count.
+     * @param node  A node in radix tree
+     */
+    static void refreshSubtree(Node node)
+    {
+        if (node == null)
+            return;
+
+        int keys = node.endOfDNA ? 1 : 0;
+        int maxCount = node.endOfDNA ? node.countOfDNA : 0;
+        long hash = DnaCodec.hash64(node.prefixCode == null 
+                                                    ? "" : node.prefixCode);
+
+        if (node.endOfDNA)
+            hash = hash ^ DnaCodec.mix64(node.countOfDNA);
+        for (int i = 0; i < MAX_CHILDREN; i++)
+        {
+            Node child = node.childNode[i];
+            if (child != null && child.keysInSubtree > 0)
+            {
+                keys = keys + child.keysInSubtree;
+                maxCount = Math.max(maxCount, child.maxCountInSubtree);
+                hash = Long.rotateLeft(hash, 27) * 0x9E3779B97F4A7C15L
+                                                        + child.subtreeHash;
+            }
+        }
+
+        node.keysInSubtree = keys;
+        node.maxCountInSubtree = maxCount;
+        node.subtreeHash = DnaCodec.mix64(hash);
+    }
+
+
     /**
      * Insert a DNA segment into the radix tree specified by root if it is
      * already not there
@@ -131,8 +262,58 @@ public class RadixTree {
      * @param root       The root node of the radix tree. We assume that root
      *                   has been already created and is valid. Root is always
      *                   a dummy node.
+     * @return true if the segment was inserted; false if it is empty or has
+     *         letters outside the alphabet, and the tree is unchanged
      */
-    static void insertDNA(String nucleotide, Node root)
+    static boolean insertDNA(String nucleotide, Node root)
+    {
+        RadixTreeChangeFeed feed = changeFeed;
+        int count;
+        
+        if (feed != null && feed.tree != root)
+            feed = null;
+        
+        if (!RadixTreeMetrics.ENABLED)
+            count = insertDNA(nucleotide, root, 1, nucleotide, feed);
+        else
+        {
+            long start = System.nanoTime();
+            count = insertDNA(nucleotide, root, 1, nucleotide, feed);
+            RadixTreeMetrics.insertLatency.record(System.nanoTime() - start);
+        }
+        
+        if (count == 0)
+            return false;
+        
+        DnaBloomFilter filter = bloomFilter;
+        if (filter != null && filter.tree == root)
+            filter.inserted(nucleotide);
+        
+        RadixTreeCache cache = queryCache;
+        if (cache != null && cache.tree == root)
+            cache.invalidate(nucleotide);
+        if (feed != null)
+            feed.publish(RadixTreeChangeFeed.INSERTED, nucleotide, count);
+        return true;
+    }
+    
+    
+    /**
+     * Insert a DNA segment into the subtree below root. This does the work
+     * of insertDNA(nucleotide, root).
+     * @param nucleotide A string denoting a DNA segment made up of only 
+     *                   characters A, C, G or T.
+     * @param root       The node below which nucleotide is inserted
+     * @param level      The level of the children of root. The children of
+     *                   the root of the tree are at level 1.
+     * @param key        The whole segment being inserted, which ends with
+     *                   nucleotide
+     * @param feed       The change feed that is told about node splits, or
+     *                   null
+     * @return countOfDNA of key after the insert, or 0 if key is invalid
+     */
+    static int insertDNA(String nucleotide, Node root, int level, String key,
+                                                    RadixTreeChangeFeed feed)
     {
         int  index;           // Index where nucleotide should be added
         int  dnaBasesMatched; // No of nucleotide dnaBases matched between the 
@@ -144,14 +325,15 @@ public class RadixTree {
         // Check whether nucleotide is made up of only A, C, G, or T
         // Else don't add it to tree; return immediately
         if (invalidBaseFound(nucleotide))
-            return;
+            return 0;
         
         // Find the designated index based on the first char of nucleotide.
-        // Each node has 4 children, so index could be one of 0, 1, 2, or 3.
+        // For DNA each node has 4 children, so index could be one of 0, 1, 2,
+        // or 3.
         // nucleotide[0] = 'A', => index = 0; nucleotide[0] = 'C', => index = 1;
         // nucleotide[0] = 'G', => index = 2; nucleotide[0] = 'T', => index = 3;
         //
-        index = dnaBases.indexOf(nucleotide.charAt(0));
+        index = baseIndex(nucleotide.charAt(0));
         
         // Child node where this nucleotide should be added
         currentNode = root.childNode[index];
@@ -171,14 +353,21 @@ public class RadixTree {
             tmpNode.prefixCode = nucleotide;
             tmpNode.endOfDNA = true;
             tmpNode.countOfDNA++;
+            refreshSubtree(tmpNode);
             
             root.childNode[index] = tmpNode;
+            
+            if (RadixTreeMetrics.ENABLED)
+                RadixTreeMetrics.recordDepth(level);
         }
         // There are 2 cases to consider here: (1) nucleotide exactly matches
         // with the prefixCode of the current node (2) nucleotide is a prefix
         // of the prefixCode of the current node
         else if (dnaBasesMatched == dnaLen)
         {
+            if (RadixTreeMetrics.ENABLED)
+                RadixTreeMetrics.recordDepth(level);
+            
             // If the incoming nucleotide completely matches with the prefixCode 
             // of the current node, then no need to add it. Just mark the node 
             // as endOfDNA.
@@ -186,6 +375,7 @@ public class RadixTree {
             {
                 currentNode.endOfDNA = true;
                 currentNode.countOfDNA++;
+                refreshSubtree(currentNode);
             }
             // Nucleotide is a prefix of the prefixCode of the current node. 
             // eg: nucleotide is AAA and the prefixCode = AAAGC. In this case
@@ -200,6 +390,11 @@ public class RadixTree {
                
                 // Create a new child node
                 Node newNode = new Node();
+                if (RadixTreeMetrics.ENABLED)
+                    RadixTreeMetrics.splits.increment();
+                if (feed != null)
+                    feed.nodeSplit(key, key.length() - dnaLen 
+                                                        + dnaBasesMatched);
                 
                 // Move the children of the current node to be the children
                 // of the new node. Also reset the child nodes of currentNode
@@ -216,10 +411,11 @@ public class RadixTree {
                 // the newNode carries this information
                 if (currentNode.endOfDNA == true)
                     newNode.endOfDNA = true;
+                refreshSubtree(newNode);
                 
                 // Find the index of the current node where the new node should 
                 // be added
-                index = dnaBases.indexOf(suffix.charAt(0));
+                index = baseIndex(suffix.charAt(0));
                 
                 // Attach newNode at the index of the currentNode
                 currentNode.childNode[index] = newNode;
@@ -231,6 +427,7 @@ public class RadixTree {
                 // currentNode, mark this as end of word
                 currentNode.endOfDNA = true;
                 currentNode.countOfDNA = 1;
+                refreshSubtree(currentNode);
             }
         }
         // Only part of the incoming nucleotide matches with the prefixCode of
@@ -251,6 +448,11 @@ public class RadixTree {
                             currentNode.prefixCode.substring(dnaBasesMatched);
                 
                 Node newNode = new Node();
+                if (RadixTreeMetrics.ENABLED)
+                    RadixTreeMetrics.splits.increment();
+                if (feed != null)
+                    feed.nodeSplit(key, key.length() - dnaLen 
+                                                        + dnaBasesMatched);
                 
                 // Move the children of the current node to be the children
                 // of the new node. Also reset the child nodes of currentNode
@@ -261,7 +463,6 @@ public class RadixTree {
                 }
                 
                 newNode.prefixCode = suffix2;
-                newNode.countOfDNA++;
                 // If currentNode was an end of word, make sure that
                 // the newNode carries this information
                 if (currentNode.endOfDNA == true)
@@ -269,10 +470,11 @@ public class RadixTree {
                     newNode.endOfDNA = true;
                     newNode.countOfDNA = currentNode.countOfDNA;
                 }
+                refreshSubtree(newNode);
                 
                 // Find the index of the current node where the new node should 
                 // be added
-                index = dnaBases.indexOf(suffix2.charAt(0));
+                index = baseIndex(suffix2.charAt(0));
                 
                 currentNode.childNode[index] = newNode;
                 
@@ -289,8 +491,17 @@ public class RadixTree {
             String suffix = nucleotide.substring(dnaBasesMatched);
             
             // Insert nucleotide suffix recursively.
-            insertDNA(suffix, currentNode); 
+            int count = insertDNA(suffix, currentNode, level + 1, key, feed);
+            refreshSubtree(root);
+            return count;
         }
+        
+        // One of the children of root has changed, so bring the subtree
+        // annotations of root up to date
+        refreshSubtree(root);
+        
+        // The child of root at the first base now ends with nucleotide
+        return root.childNode[baseIndex(nucleotide.charAt(0))].countOfDNA;
     }
     
     
@@ -507,11 +718,32 @@ public class RadixTree {
      *         else returns false.
      */
     static boolean findDNA(String nucleotide, Node tree)
+    {
+        if (!RadixTreeMetrics.ENABLED)
+            return findDNA(nucleotide, tree, 0);
+        
+        long start = System.nanoTime();
+        boolean found = findDNA(nucleotide, tree, 0);
+        RadixTreeMetrics.recordFind(found, System.nanoTime() - start);
+        return found;
+    }
+    
+    
+    /**
+     * Finds a DNA string in the subtree rooted at tree. This does the work of
+     * findDNA(nucleotide, tree).
+     * @param nucleotide: A DNA segment to be searched
+     * @param tree: A node of a radix tree
+     * @param level: The level of tree. Root is considered 0.
+     * @return Returns true if the specified DNA string is found in the tree;
+     *         else returns false.
+     */
+    static boolean findDNA(String nucleotide, Node tree, int level)
     {
         // If tree is empty or the search string consists of invalid letters
         // no need to search.
         if (tree == null || invalidBaseFound(nucleotide))
-            return false;
+            return endOfDescent(false, Math.max(level - 1, 0));
        
         // Find the common prefix length between the nucleotide and the code
         // pointed to by the current node
@@ -519,11 +751,11 @@ public class RadixTree {
           
         if (prefixLen == 0)    // This may be root node, so check its children
         {
-            int baseIndex = dnaBases.indexOf(nucleotide.charAt(prefixLen));
+            int baseIndex = baseIndex(nucleotide.charAt(prefixLen));
              
             // Search the tree rooted at childNode[baseIndex]
             return findDNA(nucleotide.substring(prefixLen), 
-                                                    tree.childNode[baseIndex]);
+                                        tree.childNode[baseIndex], level + 1);
         }
         else if (prefixLen == tree.prefixCode.length()) 
         // Eg: nucleotide = AGCC% and tree.prefixCode = AGCC
@@ -531,10 +763,9 @@ public class RadixTree {
             if (prefixLen == nucleotide.length())
             // Eg: nucleotide = AGCC and tree.prefixCode = AGCC
             { 
-                if (tree.endOfDNA == true)
-                    return true;      // Entire nucleotide matches with prefix 
-                else
-                    return false;     // But this node is not an end of word
+                // Entire nucleotide matches with prefix, but it is only
+                // found if this node is an end of word
+                return endOfDescent(tree.endOfDNA, level);
             }
             // Now we are dealing with the case, nucleotide length > prefixLen
             // Eg: nucleotide = AGCCTAACG and tree.prefixCode = AGCC
@@ -546,16 +777,277 @@ public class RadixTree {
                 String suffix = nucleotide.substring(prefixLen);
                 
                 // Find the index of child node where suffix can be found
-                int index = dnaBases.indexOf(suffix.charAt(0));
+                int index = baseIndex(suffix.charAt(0));
                
                 // Search for suffix recursively in the child node
-                return findDNA(suffix, tree.childNode[index]);
+                return findDNA(suffix, tree.childNode[index], level + 1);
             }
         }
-        else if (prefixLen < tree.prefixCode.length())
-            return false;         // Unless the entire prefixCode matches, the 
-                                  // word is not found in tree
-        return false;
+        // Unless the entire prefixCode matches, the word is not found in tree
+        return endOfDescent(false, level);
+    }
+    
+    
+    /**
+     * Returns the number of copies of a DNA string in a radix tree.
+     * @param nucleotide: A DNA segment to be searched
+     * @param tree: A radix tree consisting of valid DNA segments
+     * @return countOfDNA of the segment, or 0 if it is not in the tree or
+     *         is not a valid DNA segment
+     */
+    static int countOf(String nucleotide, Node tree)
+    {
+        int dnaLen = nucleotide.length();
+        int matched = 0;      // No of bases of nucleotide consumed so far
+        
+        if (tree == null || dnaLen == 0)
+            return 0;
+        
+        while (matched < dnaLen)
+        {
+            int index = baseIndex(nucleotide.charAt(matched));
+            Node child = index < 0 ? null : tree.childNode[index];
+            
+            // The rest of nucleotide must start with the whole prefix code
+            int codeLen = (child == null || child.prefixCode == null) 
+                                        ? 0 : child.prefixCode.length();
+            if (codeLen == 0 || matched + codeLen > dnaLen ||
+                    DnaMatcher.commonPrefix(nucleotide, matched, 
+                                    child.prefixCode, 0, codeLen) < codeLen)
+                return 0;
+            
+            matched = matched + codeLen;
+            tree = child;
+        }
+        
+        return tree.endOfDNA ? tree.countOfDNA : 0;
+    }
+    
+    
+    /**
+     * Sets the number of copies of a DNA segment in a radix tree. It takes
+     * a few descents, however much the count changes. A count of 0 deletes
+     * the segment.
+     * @param nucleotide: A DNA segment
+     * @param count: The new countOfDNA of the segment
+     * @param tree: The root node of a radix tree
+     */
+    static void setCount(String nucleotide, int count, Node tree)
+    {
+        if (count < 0)
+            throw new IllegalArgumentException("Negative count " + count);
+        
+        int current = countOf(nucleotide, tree);
+        if (count == current)
+            return;
+        
+        if (current == 0)
+        {
+            insertDNA(nucleotide, tree);
+            current = countOf(nucleotide, tree);
+            if (current == 0 || current == count) // Invalid, or done
+                return;
+        }
+        
+        if (count == 0)
+        {
+            // Leave a single copy and let deleteDNA remove the segment
+            updateCount(nucleotide, 1, tree);
+            deleteDNA(nucleotide, tree);
+            return;
+        }
+        
+        updateCount(nucleotide, count, tree);
+        
+        RadixTreeChangeFeed feed = changeFeed;
+        RadixTreeCache cache = queryCache;
+        if (cache != null && cache.tree == tree)
+            cache.invalidate(nucleotide);
+        if (feed != null && feed.tree == tree)
+            feed.publish(count > current ? RadixTreeChangeFeed.INSERTED
+                        : RadixTreeChangeFeed.REMOVED, nucleotide, count);
+    }
+    
+    
+    /**
+     * Sets countOfDNA of a segment which is in the subtree rooted at tree,
+     * and brings the subtree annotations on its path up to date.
+     * @param nucleotide: The rest of a DNA segment below tree
+     * @param count: The new countOfDNA, at least 1
+     * @param tree: A node of a radix tree
+     */
+    static void updateCount(String nucleotide, int count, Node tree)
+    {
+        if (nucleotide.isEmpty())
+            tree.countOfDNA = count;
+        else
+        {
+            Node child = tree.childNode[baseIndex(nucleotide.charAt(0))];
+            updateCount(nucleotide.substring(child.prefixCode.length()), 
+                                                                count, child);
+        }
+        refreshSubtree(tree);
+    }
+    
+    
+    /**
+     * Finds many DNA strings in a radix tree. Same as calling findDNA for
+     * every read, except that invalid reads are reported as not found
+     * without printing a message.
+     * @param reads: DNA segments to be searched
+     * @param found: Receives for every read whether it is in the tree; must
+     *               be at least as long as reads
+     * @param tree: A radix tree consisting of valid DNA segments
+     * @return The number of reads found in the tree
+     */
+    static int containsAll(String[] reads, boolean[] found, Node tree)
+    {
+        return searchAll(reads, found, null, tree);
+    }
+    
+    
+    /**
+     * Looks up the number of copies of many DNA strings in a radix tree.
+     * @param reads: DNA segments to be searched
+     * @param counts: Receives for every read its countOfDNA, or 0 if it is
+     *                not in the tree; must be at least as long as reads
+     * @param tree: A radix tree consisting of valid DNA segments
+     * @return The number of reads found in the tree
+     */
+    static int countAll(String[] reads, int[] counts, Node tree)
+    {
+        return searchAll(reads, null, counts, tree);
+    }
+    
+    
+    // Number of lookups that searchAll keeps in flight at the same time.
+    // On a tree of one million random segments (BatchLookupBenchmark),
+    // groups of 8 to 32 are about 1.5 times as fast as a countOf loop, and
+    // a group of 1 is a little slower than the loop; 16 is in the middle of
+    // the flat part of the curve.
+    //
+    static final int DEFAULT_LOOKUP_GROUP = 16;
+    static int LOOKUP_GROUP = DEFAULT_LOOKUP_GROUP;
+    
+    
+    /**
+     * Searches a batch of reads. A single findDNA is a chain of dependent
+     * loads: the next node cannot be fetched before the current one has
+     * arrived from memory. Here a group of LOOKUP_GROUP lookups advances
+     * one level at a time in round robin order. The loads of one round
+     * belong to independent lookups, so the processor can have all of them
+     * outstanding at once and the cache misses overlap instead of adding
+     * up. A lookup that completes hands its slot to the next read.
+     * @param reads: DNA segments to be searched
+     * @param found: Receives whether each read is in the tree, or null
+     * @param counts: Receives countOfDNA of each read, or null
+     * @param tree: A radix tree
+     * @return The number of reads found in the tree
+     */
+    static int searchAll(String[] reads, boolean[] found, int[] counts,
+                                                                Node tree)
+    {
+        int    group = Math.max(1, Math.min(LOOKUP_GROUP, reads.length));
+        Node[] nodes = new Node[group];    // Node reached by each lookup
+        int[]  matched = new int[group];   // No of bases matched so far
+        int[]  query = new int[group];     // Read being searched in a slot
+        int    nextRead = 0;
+        int    active = 0;
+        int    hits = 0;
+        
+        // Start the first group of lookups at the root
+        while (active < group && nextRead < reads.length)
+        {
+            nodes[active] = tree;
+            matched[active] = 0;
+            query[active] = nextRead++;
+            active++;
+        }
+        
+        while (active > 0)
+        {
+            for (int slot = 0; slot < active; slot++)
+            {
+                String read = reads[query[slot]];
+                Node   node = nodes[slot];
+                int    count = -1;     // Becomes >= 0 once lookup is done
+                
+                if (node == null || read == null || read.isEmpty())
+                    count = 0;
+                else if (matched[slot] == read.length())
+                    // Whole read matched; found if a segment ends here
+                    count = node.endOfDNA ? node.countOfDNA : 0;
+                else
+                {
+                    int  pos = matched[slot];
+                    int  index = baseIndex(read.charAt(pos));
+                    Node child = index < 0 ? null : node.childNode[index];
+                    
+                    if (child == null || child.prefixCode == null)
+                        count = 0;
+                    else
+                    {
+                        // The read must contain the whole prefix code
+                        String code = child.prefixCode;
+                        int codeLen = code.length();
+                        
+                        if (codeLen == 0 || pos + codeLen > read.length() ||
+                                DnaMatcher.commonPrefix(read, pos, code, 0,
+                                                    codeLen) < codeLen)
+                            count = 0;
+                        else
+                        {
+                            nodes[slot] = child;
+                            matched[slot] = pos + codeLen;
+                        }
+                    }
+                }
+                
+                if (count < 0)
+                    continue;
+                
+                // Report the result and reuse the slot for the next read
+                int q = query[slot];
+                if (found != null)
+                    found[q] = count > 0;
+                if (counts != null)
+                    counts[q] = count;
+                if (count > 0)
+                    hits++;
+                
+                if (nextRead < reads.length)
+                {
+                    nodes[slot] = tree;
+                    matched[slot] = 0;
+                    query[slot] = nextRead++;
+                }
+                else
+                {
+                    // Move the last active lookup into this slot
+                    active--;
+                    nodes[slot] = nodes[active];
+                    matched[slot] = matched[active];
+                    query[slot] = query[active];
+                    slot--;
+                }
+            }
+        }
+        
+        return hits;
+    }
+    
+    
+    /**
+     * Returns the index of the child node for a base, ie, for DNA 0 for A,
+     * 1 for C, 2 for G and 3 for T. The index is read from the lookup table
+     * of the alphabet.
+     * @param base: A character of a DNA segment
+     * @return Index of base in the alphabet, or -1 if base is not a letter
+     *         of the alphabet
+     */
+    static int baseIndex(char base)
+    {
+        return alphabet.indexOf(base);
     }
     
     
@@ -588,6 +1080,12 @@ public class RadixTree {
         tree.prefixCode = "";
         tree.endOfDNA = false;
         tree.countOfDNA = 0;
+        tree.keysInSubtree = 0;
+        tree.maxCountInSubtree = 0;
+        tree.subtreeHash = 0;
+        
+        if (RadixTreeMetrics.ENABLED)
+            RadixTreeMetrics.nodesRemoved.increment();
         
         // Also deletes its children
         for (int i=0; i < MAX_CHILDREN; i++)
@@ -600,8 +1098,6 @@ public class RadixTree {
                 tree.childNode[i] = null;
             }
         }
-        tree = null;
-        System.gc();
     }
     
     
@@ -613,22 +1109,64 @@ public class RadixTree {
      *         else returns false.
      */
     static boolean deleteDNA(String nucleotide, Node tree)
+    {
+        RadixTreeChangeFeed feed = changeFeed;
+        int left;       // Copies left after the delete; -1 if not found
+        
+        if (!RadixTreeMetrics.ENABLED)
+            left = deleteDNA(nucleotide, tree, 0);
+        else
+        {
+            long start = System.nanoTime();
+            left = deleteDNA(nucleotide, tree, 0);
+            RadixTreeMetrics.recordDelete(left >= 0, 
+                                                System.nanoTime() - start);
+        }
+        
+        if (left < 0)
+            return false;
+        
+        DnaBloomFilter filter = bloomFilter;
+        if (filter != null && filter.tree == tree)
+            filter.deleted();
+        
+        RadixTreeCache cache = queryCache;
+        if (cache != null && cache.tree == tree)
+            cache.invalidate(nucleotide);
+        if (feed != null && feed.tree == tree)
+            feed.publish(RadixTreeChangeFeed.REMOVED, nucleotide, left);
+        return true;
+    }
+    
+    
+    /**
+     * Deletes a DNA string in the subtree rooted at tree. This does the work
+     * of deleteDNA(nucleotide, tree).
+     * @param nucleotide: A DNA segment to be deleted
+     * @param tree: A node of a radix tree
+     * @param level: The level of tree. Root is considered 0.
+     * @return Returns the number of copies of the DNA string left in the
+     *         tree if it is found and deleted; else returns -1.
+     */
+    static int deleteDNA(String nucleotide, Node tree, int level)
     {
         // If this is an emptry tree or the prefixCode is not present, or the
         // string to be deleted is an invalid DNA string, return immediately
         if (tree == null || tree.prefixCode == null 
                 || invalidBaseFound(nucleotide))
-            return false;
+            return endOfDescent(-1, Math.max(level - 1, 0));
        
         int prefixLen = commonPrefixLength(nucleotide, tree);
         
         if (prefixLen == 0)  // This may be root node, so check its children
         {
-            int baseIndex = dnaBases.indexOf(nucleotide.charAt(prefixLen));
+            int baseIndex = baseIndex(nucleotide.charAt(prefixLen));
         
             // Look for nucleotide in the tree rooted at the child node
-            return deleteDNA(nucleotide.substring(prefixLen), 
-                                            tree.childNode[baseIndex]);
+            int left = deleteDNA(nucleotide.substring(prefixLen), 
+                                        tree.childNode[baseIndex], level + 1);
+            refreshSubtree(tree);
+            return left;
         }
         else if (prefixLen == tree.prefixCode.length()) 
         // Eg: nucleotide = AGCC% and tree.prefixCode = AGCC
@@ -636,20 +1174,29 @@ public class RadixTree {
             if (prefixLen == nucleotide.length())
             // Eg: nucleotide = AGCC and tree.prefixCode = AGCC
             {
-                if (hasAChild(tree))  // Does this node have at least one child?
+                // Prefix matches, but no DNA segment ends at this node
+                if (tree.endOfDNA == false)
+                    return endOfDescent(-1, level);
+                
+                int left = tree.countOfDNA - 1;
+                
+                // A node with children, or with more copies of the
+                // segment, stays; only its word count is decremented
+                if (hasAChild(tree) || left > 0)
                 {
-                    // We cannot remove this node, but decrement word count
                     tree.countOfDNA--;
                     
                     // If no more end of words represented by this node,
                     // indicate it
                     if (tree.countOfDNA == 0)
                         tree.endOfDNA = false;                  
+                    refreshSubtree(tree);
                 }
                 else  // We can safely remove this node
                     deleteNode(tree);
                
-                return true;   // Entire nucleotide matches with prefix 
+                // Entire nucleotide matches with prefix 
+                return endOfDescent(left, level);
             }
             // Now we are dealing with the case, nucleotide length > prefixLen
             // Eg: nucleotide = AGCCTAACG and tree.prefixCode = AGCC
@@ -661,44 +1208,635 @@ public class RadixTree {
                 String suffix = nucleotide.substring(prefixLen);
                 
                 // Find the index of child node where suffix can be found
-                int index = dnaBases.indexOf(suffix.charAt(0));
+                int index = baseIndex(suffix.charAt(0));
            
                 // Recursively for suffix in the tree rooted at 
                 // childNode[index] and delete the leaf node
-                return deleteDNA(suffix, tree.childNode[index]);
+                int left = deleteDNA(suffix, tree.childNode[index], 
+                                                                level + 1);
+                refreshSubtree(tree);
+                return left;
             }
         }
-        else if (prefixLen < tree.prefixCode.length())
-            return false;         // Unless the entire prefixCode matches, the 
-                                  // word is not found in tree
-        return false;
+        // Unless the entire prefixCode matches, the word is not found in tree
+        return endOfDescent(-1, level);
     }
     
     
+    /**
+     * This is a helper method for findDNA and deleteDNA, which passes the
+     * result of a search through. When metrics are enabled, it records the
+     * level at which the search ended.
+     * @param result: The result of the search
+     * @param level: The level of the last node visited. Root is 0.
+     * @return result
+     */
+    static boolean endOfDescent(boolean result, int level)
+    {
+        if (RadixTreeMetrics.ENABLED)
+            RadixTreeMetrics.recordDepth(level);
+        return result;
+    }
+    
+    
+    /**
+     * Same as endOfDescent(boolean, int), for deleteDNA, whose result is a
+     * count.
+     * @param result: The result of the search
+     * @param level: The level of the last node visited. Root is 0.
+     * @return result
+     */
+    static int endOfDescent(int result, int level)
+    {
+        if (RadixTreeMetrics.ENABLED)
+            RadixTreeMetrics.recordDepth(level);
+        return result;
+    }
+    
     
+    /**
+     * Returns the number of unique DNA segments in the tree which are
+     * strictly smaller than nucleotide in alphabetical order. The children of
+     * a node are ordered A < C < G < T and a node always sorts before its
+     * children, so the rank is found in a single descent by adding up the
+     * subtree counts of the children to the left of the search path.
+     * Eg: tree = {AC, AG, CT}; rank(AG) = 1; rank(AA) = 0; rank(GA) = 3
+     * @param nucleotide: A DNA segment, which need not be in the tree
+     * @param tree: The root node of a radix tree
+     * @return The rank of nucleotide, or -1 if nucleotide is not a valid DNA
+     *         segment.
+     */
+    static int rank(String nucleotide, Node tree)
+    {
+        if (tree == null || nucleotide.isEmpty() 
+                || invalidBaseIndex(nucleotide) >= 0)
+            return -1;
+
+        int dnaLen = nucleotide.length();
+        int matched = 0;      // No of bases of nucleotide consumed so far
+        int rank = 0;
+
+        while (matched < dnaLen)
+        {
+            // A segment ending at this node is a proper prefix of nucleotide
+            if (tree.endOfDNA == true)
+                rank++;
+
+            int index = baseIndex(nucleotide.charAt(matched));
+
+            // Every segment under a smaller base sorts before nucleotide
+            for (int i = 0; i < index; i++)
+                rank = rank + keysInSubtree(tree.childNode[i]);
+
+            Node child = tree.childNode[index];
+            if (keysInSubtree(child) == 0)
+                return rank;
+
+            String suffix = nucleotide.substring(matched);
+            int prefixLen = commonPrefixLength(suffix, child);
+
+            if (prefixLen == child.prefixCode.length())
+            {
+                // The whole prefix code matches, continue in the child
+                matched = matched + prefixLen;
+                tree = child;
+            }
+            else if (prefixLen == suffix.length())
+                // nucleotide ends inside the prefix code, so it is smaller
+                // than every segment in the child subtree
+                return rank;
+            else if (suffix.charAt(prefixLen) <
+                                        child.prefixCode.charAt(prefixLen))
+                return rank;
+            else
+                return rank + keysInSubtree(child);
+        }
+
+        // nucleotide ends exactly at tree; everything below is larger
+        return rank;
+    }
+
+
+    /**
+     * Returns the unique DNA segment at position i in alphabetical order,
+     * where position 0 is the smallest segment in the tree. The search
+     * descends into the child whose subtree count covers position i.
+     * @param i: Position of the segment, 0 <= i < number of unique segments
+     * @param tree: The root node of a radix tree
+     * @return The DNA segment at position i, or null if i is out of range
+     */
+    static String select(int i, Node tree)
+    {
+        if (tree == null || i < 0 || i >= keysInSubtree(tree))
+            return null;
+
+        StringBuilder dnaSegment = new StringBuilder();
+
+        while (tree != null)
+        {
+            if (tree.endOfDNA == true)
+            {
+                if (i == 0)
+                    return dnaSegment.toString();
+                i--;
+            }
+
+            Node next = null;
+            for (int j = 0; j < MAX_CHILDREN && next == null; j++)
+            {
+                int keys = keysInSubtree(tree.childNode[j]);
+
+                if (i < keys)
+                    next = tree.childNode[j];
+                else
+                    i = i - keys;
+            }
+
+            if (next != null)
+                dnaSegment.append(next.prefixCode);
+            tree = next;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Returns the smallest DNA segment in the tree that is greater than or
+     * equal to nucleotide.
+     * @param nucleotide: A DNA segment, which need not be in the tree
+     * @param tree: The root node of a radix tree
+     * @return The ceiling of nucleotide, or null if there is none
+     */
+    static String ceiling(String nucleotide, Node tree)
+    {
+        int position = rank(nucleotide, tree);
+
+        return position < 0 ? null : select(position, tree);
+    }
+
+
+    /**
+     * Returns the smallest DNA segment in the tree that is strictly greater
+     * than nucleotide.
+     * @param nucleotide: A DNA segment, which need not be in the tree
+     * @param tree: The root node of a radix tree
+     * @return The successor of nucleotide, or null if there is none
+     */
+    static String higher(String nucleotide, Node tree)
+    {
+        int position = rank(nucleotide, tree);
+
+        if (position < 0)
+            return null;
+        if (findDNA(nucleotide, tree))
+            position++;
+        return select(position, tree);
+    }
+
+
+    /**
+     * Returns the largest DNA segment in the tree that is less than or equal
+     * to nucleotide.
+     * @param nucleotide: A DNA segment, which need not be in the tree
+     * @param tree: The root node of a radix tree
+     * @return The floor of nucleotide, or null if there is none
+     */
+    static String floor(String nucleotide, Node tree)
+    {
+        int position = rank(nucleotide, tree);
+
+        if (position < 0)
+            return null;
+        if (findDNA(nucleotide, tree))
+            return nucleotide;
+        return select(position - 1, tree);
+    }
+
+
+    /**
+     * Returns the largest DNA segment in the tree that is strictly less than
+     * nucleotide.
+     * @param nucleotide: A DNA segment, which need not be in the tree
+     * @param tree: The root node of a radix tree
+     * @return The predecessor of nucleotide, or null if there is none
+     */
+    static String lower(String nucleotide, Node tree)
+    {
+        int position = rank(nucleotide, tree);
+
+        return position < 0 ? null : select(position - 1, tree);
+    }
+
+
+    /**
+     * Returns an iterator over the unique DNA segments in the half open range
+     * [from, to) in alphabetical order. rank finds the positions of the
+     * bounds, a single descent positions the iterator on the first segment,
+     * and from there the segments are produced by walking the tree, so the
+     * range is never copied into memory. The tree must not be modified
+     * while the iterator is in use.
+     * @param from: Lower bound (inclusive), or null to start at the smallest
+     *              segment in the tree
+     * @param to: Upper bound (exclusive), or null to stop after the largest
+     *            segment in the tree
+     * @param tree: The root node of a radix tree
+     * @return An iterator over the DNA segments in the range; it is empty if
+     *         from or to has a letter outside the alphabet
+     */
+    static Iterator<String> range(String from, String to, final Node tree)
+    {
+        // The empty string sorts before every segment
+        int first = (from == null || from.isEmpty()) ? 0 : rank(from, tree);
+        int last = (to == null) ? keysInSubtree(tree) 
+                        : to.isEmpty() ? 0 : rank(to, tree);
+        
+        // Like findDNA, an invalid segment matches nothing
+        if (first < 0 || last < 0)
+            return Collections.emptyIterator();
+
+        if (first >= last)
+            return Collections.emptyIterator();
+        return new RangeIterator(tree, first, last - first);
+    }
+    
+    
+    //
+    // Iterator of range. It keeps the path from the root to the node of the
+    // current segment on a stack, with the next child to visit of every
+    // node on it, and the current segment in one StringBuilder. Going to
+    // the next segment in preorder moves along the path by a few nodes on
+    // average instead of descending from the root.
+    //
+    static class RangeIterator implements Iterator<String> {
+        
+        Node[] path = new Node[16];
+        int[]  nextChild = new int[16];   // Next child of path[d] to visit
+        int    depth;                     // Nodes on path
+        final StringBuilder dnaSegment = new StringBuilder();
+        int    remaining;                 // Segments left to return
+        
+        
+        /**
+         * Positions the iterator on the segment at position first, like
+         * select.
+         * @param tree: The root node of a radix tree
+         * @param first: Position of the first segment, 0 <= first < number
+         *               of unique segments
+         * @param count: Number of segments to return
+         */
+        RangeIterator(Node tree, int first, int count)
+        {
+            int i = first;
+            
+            remaining = count;
+            push(tree);
+            while (true)
+            {
+                Node node = path[depth - 1];
+                
+                if (node.endOfDNA == true)
+                {
+                    if (i == 0)
+                        return;
+                    i--;
+                }
+                
+                int j = 0;
+                while (i >= keysInSubtree(node.childNode[j]))
+                    i = i - keysInSubtree(node.childNode[j++]);
+                nextChild[depth - 1] = j + 1;
+                push(node.childNode[j]);
+            }
+        }
+        
+        
+        void push(Node node)
+        {
+            if (depth == path.length)
+            {
+                path = Arrays.copyOf(path, 2 * depth);
+                nextChild = Arrays.copyOf(nextChild, 2 * depth);
+            }
+            path[depth] = node;
+            nextChild[depth] = 0;
+            depth++;
+            if (node.prefixCode != null)
+                dnaSegment.append(node.prefixCode);
+        }
+        
+        
+        // Moves to the next node in preorder where a segment ends
+        void advance()
+        {
+            while (depth > 0)
+            {
+                Node node = path[depth - 1];
+                int  j = nextChild[depth - 1];
+                
+                while (j < MAX_CHILDREN 
+                                && keysInSubtree(node.childNode[j]) == 0)
+                    j++;
+                
+                if (j == MAX_CHILDREN)
+                {
+                    // The subtree of node is done; go back to its parent
+                    dnaSegment.setLength(dnaSegment.length() 
+                                                - prefixCodeLength(node));
+                    depth--;
+                    continue;
+                }
+                
+                nextChild[depth - 1] = j + 1;
+                push(node.childNode[j]);
+                if (node.childNode[j].endOfDNA == true)
+                    return;
+            }
+        }
+        
+        @Override
+        public boolean hasNext()
+        {
+            return remaining > 0;
+        }
+        
+        @Override
+        public String next()
+        {
+            if (remaining == 0)
+                throw new NoSuchElementException();
+            
+            String segment = dnaSegment.toString();
+            if (--remaining > 0)
+                advance();
+            return segment;
+        }
+    }
+
+
+    /**
+     * Returns the smallest string which is greater than every DNA segment
+     * that starts with prefix. That is prefix without its trailing last
+     * letters of the alphabet, and with its new last letter replaced by the
+     * next letter of the alphabet.
+     * Eg: prefixEnd(ACG) = ACT; prefixEnd(AGT) = AT; prefixEnd(TT) = null
+     * @param prefix: A DNA segment
+     * @return The end of the range of segments starting with prefix, or
+     *         null if the range extends to the end of the tree
+     */
+    static String prefixEnd(String prefix)
+    {
+        int last = alphabet.size() - 1;
+        int length = prefix.length();
+
+        while (length > 0 && baseIndex(prefix.charAt(length - 1)) == last)
+            length--;
+        if (length == 0)
+            return null;
+
+        int next = baseIndex(prefix.charAt(length - 1)) + 1;
+        return prefix.substring(0, length - 1) + alphabet.symbols.charAt(next);
+    }
+
+
+    /**
+     * Returns the number of unique DNA segments in the tree that start with
+     * prefix, in two descents of the tree.
+     * @param prefix: A DNA segment; the empty string counts every segment
+     * @param tree: The root node of a radix tree
+     * @return The number of segments starting with prefix, or 0 if prefix is
+     *         not a valid DNA segment
+     */
+    static int countWithPrefix(String prefix, Node tree)
+    {
+        int first = prefix.isEmpty() ? 0 : rank(prefix, tree);
+        if (first < 0)
+            return 0;
+
+        String end = prefixEnd(prefix);
+        int last = (end == null) ? keysInSubtree(tree) : rank(end, tree);
+        return last - first;
+    }
+
+
+    /**
+     * Returns an iterator over the unique DNA segments in the tree that
+     * start with prefix, in alphabetical order.
+     * @param prefix: A DNA segment; the empty string lists every segment
+     * @param tree: The root node of a radix tree
+     * @return An iterator over the segments starting with prefix
+     */
+    static Iterator<String> withPrefix(String prefix, Node tree)
+    {
+        return range(prefix.isEmpty() ? null : prefix, prefixEnd(prefix), tree);
+    }
+
+
+    /**
+     * Returns the k DNA segments with the most copies, ie, the largest
+     * countOfDNA, most frequent first. Segments with the same count come in
+     * alphabetical order.
+     * @param k: Number of segments to return
+     * @param tree: The root node of a radix tree
+     * @return Up to k segments with their counts
+     */
+    static List<Map.Entry<String, Integer>> topK(int k, Node tree)
+    {
+        return topKWithPrefix("", k, tree);
+    }
+
+
+    /**
+     * Returns the k DNA segments starting with prefix that have the most
+     * copies, most frequent first. Segments with the same count come in
+     * alphabetical order.
+     * 
+     * The search is best first. A queue holds subtrees, ranked by the
+     * largest count in them (maxCountInSubtree), and segments, ranked by
+     * their own count. A subtree is only opened when it is at the head of
+     * the queue, so subtrees whose largest count cannot make it into the
+     * result are never visited.
+     * @param prefix: A DNA segment; the empty string matches every segment
+     * @param k: Number of segments to return
+     * @param tree: The root node of a radix tree
+     * @return Up to k segments with their counts
+     */
+    static List<Map.Entry<String, Integer>> topKWithPrefix(String prefix,
+                                                        int k, Node tree)
+    {
+        List<Map.Entry<String, Integer>> top = new ArrayList<>();
+        Node start = tree;
+        String path = "";
+        int matched = 0;      // No of bases of prefix consumed so far
+
+        if (tree == null || k <= 0)
+            return top;
+
+        // Find the highest node whose path starts with prefix
+        while (matched < prefix.length())
+        {
+            int index = baseIndex(prefix.charAt(matched));
+            Node child = index < 0 ? null : start.childNode[index];
+            if (keysInSubtree(child) == 0)
+                return top;
+
+            String suffix = prefix.substring(matched);
+            int prefixLen = commonPrefixLength(suffix, child);
+
+            if (prefixLen < Math.min(suffix.length(), 
+                                                child.prefixCode.length()))
+                return top;
+            path = prefix.substring(0, matched) + child.prefixCode;
+            matched = matched + prefixLen;
+            start = child;
+        }
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(new Candidate(start, path, start.maxCountInSubtree));
+
+        while (top.size() < k && !queue.isEmpty())
+        {
+            Candidate head = queue.poll();
+            Node node = head.node;
+
+            if (node == null)  // A segment
+            {
+                top.add(new AbstractMap.SimpleImmutableEntry<>(head.path,
+                                                                head.count));
+                continue;
+            }
+
+            if (node.endOfDNA == true)
+                queue.add(new Candidate(null, head.path, node.countOfDNA));
+            for (int i = 0; i < MAX_CHILDREN; i++)
+            {
+                Node child = node.childNode[i];
+                if (keysInSubtree(child) > 0)
+                    queue.add(new Candidate(child, 
+                                head.path + child.prefixCode,
+                                child.maxCountInSubtree));
+            }
+        }
+
+        return top;
+    }
+
+
+    //
+    // Entry in the queue of topKWithPrefix: a subtree or, if node is null, a
+    // single segment. Higher counts come first. On equal counts the smaller
+    // path comes first, and a subtree before the segment with the same
+    // path, so that ties are returned in alphabetical order.
+    //
+    static class Candidate implements Comparable<Candidate> {
+
+        final Node node;
+        final String path;
+        final int count;
+
+        Candidate(Node node, String path, int count)
+        {
+            this.node = node;
+            this.path = path;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo(Candidate other)
+        {
+            if (count != other.count)
+                return Integer.compare(other.count, count);
+
+            int order = path.compareTo(other.path);
+            if (order != 0)
+                return order;
+            return Boolean.compare(node == null, other.node == null);
+        }
+    }
+
+
     /**
      * Generates a random DNA string of length between 10 and 100. The string
      * contains only valid bases of A, C, G and T.
      * @return A valid DNA string
      */
     static String generateRandomDNA()
+    {
+        return generateRandomDNA(ThreadLocalRandom.current());
+    }
+    
+    
+    /**
+     * Generates a random DNA string of length between 10 and 100 from the
+     * given source of randomness, so that benchmarks and load generators
+     * can repeat the same segments with a seed.
+     * @param random: Source of randomness
+     * @return A valid DNA string
+     */
+    static String generateRandomDNA(Random random)
     {
         int MAXLEN = 100;       // Maximum length of DNA string
         int MINLEN = 10;        // Minimum length of DNA string
-        int dnaLen = 0;
-        String dnaString = "";
-        
-        // Make sure DNA string is atleast 10 char long
-        while (dnaLen < MINLEN)
-            dnaLen = (int) Math.ceil(Math.random()*MAXLEN);
+        String symbols = alphabet.symbols;
+        int dnaLen = MINLEN + random.nextInt(MAXLEN - MINLEN + 1);
+        char[] bases = new char[dnaLen];
         
         for (int i = 0; i < dnaLen; i++)
+            bases[i] = symbols.charAt(random.nextInt(symbols.length()));
+        return new String(bases);
+    }
+    
+    
+    /**
+     * Inserts a DNA segment on behalf of the user menu. If the tree is kept
+     * in a log directory, the insert is logged before it is applied.
+     * 
+     * @param nucleotide : A DNA segment
+     * @param myTree : A radix tree
+     */
+    static void insertIntoTree(String nucleotide, Node myTree)
+    {
+        if (treeLog == null)
+        {
+            insertDNA(nucleotide, myTree);
+            return;
+        }
+        
+        try
+        {
+            treeLog.insertDNA(nucleotide);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not log insert of " + nucleotide + 
+                                                    ": " + e.getMessage());
+        }
+    }
+    
+    
+    /**
+     * Deletes a DNA segment on behalf of the user menu. If the tree is kept
+     * in a log directory, the delete is logged before it is applied.
+     * 
+     * @param nucleotide : A DNA segment
+     * @param myTree : A radix tree
+     * @return true if the segment was found and deleted; else false
+     */
+    static boolean deleteFromTree(String nucleotide, Node myTree)
+    {
+        if (treeLog == null)
+            return deleteDNA(nucleotide, myTree);
+        
+        try
+        {
+            return treeLog.deleteDNA(nucleotide);
+        }
+        catch (IOException e)
         {
-            int index = (int) Math.ceil(Math.random()*MAX_CHILDREN) - 1;
-            char base = dnaBases.charAt(index);
-            dnaString = dnaString + base;
-        }   
-        return dnaString;
+            System.out.println("Could not log delete of " + nucleotide + 
+                                                    ": " + e.getMessage());
+            return false;
+        }
     }
     
     
@@ -726,7 +1864,7 @@ public class RadixTree {
         System.out.println("     ** Number of unique words in tree BEFORE = " + countUniqueStrings(myTree, 0));
         System.out.println("     ** Number of total words in tree BEFORE  = " + countStrings(myTree, 0));
         System.out.println("     *********************************************"); 
-        insertDNA(newWord, myTree);
+        insertIntoTree(newWord, myTree);
         System.out.println("     *********************************************");
         System.out.println("     ** Number of unique words in tree AFTER = " + countUniqueStrings(myTree, 0));
         System.out.println("     ** Number of total words in tree AFTER  = " + countStrings(myTree, 0));
@@ -754,7 +1892,7 @@ public class RadixTree {
         for (int i = 0; i < choice; i++)
         {
             String dnaStr = generateRandomDNA();
-            insertDNA(dnaStr, myTree); 
+            insertIntoTree(dnaStr, myTree); 
         }
     }
     
@@ -814,7 +1952,7 @@ public class RadixTree {
         int noOfWords = countStrings(myTree, 0);
         int noOfUniqueWords = countUniqueStrings(myTree, 0);
         
-        if (deleteDNA(newWord, myTree) == true)
+        if (deleteFromTree(newWord, myTree) == true)
         {
             System.out.println("     *********************************************");
             System.out.println("     ********     Delete Successful!     *********");
@@ -879,16 +2017,14 @@ public class RadixTree {
      */
     public static void printAlphabeticalStrings(Node myTree)
     {
-        List<String> myList = new ArrayList<String>();
-      
-        myList = gatherStrings(myTree, "", myList);
-        Collections.sort(myList); 
-      
         //
-        // myList is now in alphabetical order
+        // The children of every node are kept in A, C, G, T order, so the
+        // segments come out of the tree already in alphabetical order
         //
-        for (int i = 0; i < myList.size(); i++)
-            System.out.println(myList.get(i)); 
+        Iterator<String> myList = range(null, null, myTree);
+        
+        while (myList.hasNext())
+            System.out.println(myList.next()); 
         
         System.out.println("     *********************************************");
         System.out.println("     ** Number of unique words in the tree = " + countUniqueStrings(myTree, 0));
@@ -930,17 +2066,32 @@ public class RadixTree {
      * Main method, which invokes the user menu to call
      * for various actions
      * 
-     * @param args the command line arguments
+     * @param args the command line arguments. If a directory is given, the
+     *             tree is recovered from the checkpoint and log stored there,
+     *             and every insert and delete is logged to it.
+     * @throws IOException If the log directory cannot be read or written
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         
         int option = 0;
+        Node myTree;
         
-        // Create the root node. Root node is a dummy node, which does not have
-        // any data, other than links to its children
-        //
-        Node myTree = new Node();
-        myTree.prefixCode = "";
+        if (args.length > 0)
+        {
+            treeLog = RadixTreeLog.open(Paths.get(args[0]));
+            myTree = treeLog.tree();
+            System.out.println("Recovered " + countUniqueStrings(myTree, 0) +
+                        " unique words from " + args[0] + " in " +
+                        treeLog.recoveryNanos / 1000000 + " ms");
+        }
+        else
+        {
+            // Create the root node. Root node is a dummy node, which does not
+            // have any data, other than links to its children
+            //
+            myTree = new Node();
+            myTree.prefixCode = "";
+        }
         
         // Get option from user and execute it
         
@@ -987,6 +2138,14 @@ public class RadixTree {
                     System.out.println("Invalid choice. Please try again!");
             }
         }
+        
+        // Leave a fresh checkpoint behind, so the next start does not need
+        // to replay the log
+        if (treeLog != null)
+        {
+            treeLog.checkpoint();
+            treeLog.close();
+        }
     } 
 }
      
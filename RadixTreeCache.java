@@ -0,0 +1,370 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+//
+// Bounded cache of query results of one radix tree, for query streams that
+// ask for the same few segments over and over. It caches countOf (and so
+// findDNA) and countWithPrefix. Results are looked up by the 64 bit hash
+// of the packed segment (DnaCodec.hash64); every entry also keeps its
+// segment, so a hash collision is a miss and never a wrong answer.
+//
+// Entries are invalidated exactly by version stamps. There is a version
+// for the subtree of every path of versionBases bases from the root (for
+// DNA, every path of 6 bases; 4096 subtrees), and one for the whole tree.
+// Once a cache is attached to a tree, RadixTree.insertDNA and deleteDNA
+// bump the version of the subtree they changed, and the version of the
+// whole tree. An entry records the version of the subtree its segment
+// falls into when it is computed, or the version of the whole tree for
+// segments shorter than versionBases, and it is only used while that
+// version is unchanged. A change to one subtree leaves the entries of the
+// others alone.
+//
+// The cache is split into segments by hash, and every segment is an LRU
+// list (a LinkedHashMap in access order) behind its own lock, so threads
+// that look up different segments do not contend. Lookups may run
+// concurrently with each other; like the tree itself, the cache expects
+// inserts and deletes not to run concurrently with lookups. Hits, misses,
+// stale entries and evictions are counted and can be read over JMX under
+// the name radixtree:type=RadixTreeCache.
+//
+// Only one tree can have a cache at a time.
+//
+public class RadixTreeCache implements RadixTreeCacheMBean {
+
+    static final String OBJECT_NAME = "radixtree:type=RadixTreeCache";
+
+    static final byte COUNT = 1;          // Result of countOf
+    static final byte PREFIX_COUNT = 2;   // Result of countWithPrefix
+
+    static final int SEGMENTS = 16;
+
+    // Most subtrees with a version of their own
+    static final int MAX_VERSIONS = 4096;
+
+    final RadixTree.Node tree;
+    final Segment[] segments = new Segment[SEGMENTS];
+
+    // Version of the subtree of every path of versionBases bases; the
+    // last one is the version of the whole tree
+    final int versionBases;
+    final int wholeTree;
+    final AtomicLongArray versions;
+
+    // Statistics
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder stale = new LongAdder();     // Misses on old entries
+    final LongAdder evictions = new LongAdder();
+
+
+    RadixTreeCache(RadixTree.Node tree, int capacity)
+    {
+        int bases = 0;
+        int subtrees = 1;
+
+        while (subtrees * RadixTree.MAX_CHILDREN <= MAX_VERSIONS)
+        {
+            subtrees = subtrees * RadixTree.MAX_CHILDREN;
+            bases++;
+        }
+
+        this.tree = tree;
+        versionBases = bases;
+        wholeTree = subtrees;
+        versions = new AtomicLongArray(subtrees + 1);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+    }
+
+
+    /**
+     * Attaches a new cache to a tree, replacing the cache of any other
+     * tree.
+     * @param tree The root node of a radix tree
+     * @param capacity The most results to keep
+     * @return The cache
+     */
+    public static RadixTreeCache attach(RadixTree.Node tree, int capacity)
+    {
+        RadixTreeCache cache = new RadixTreeCache(tree, capacity);
+
+        detachAll();
+        RadixTree.queryCache = cache;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                                        cache, new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException e)
+        {
+            System.out.println("Could not register " + OBJECT_NAME + ": " +
+                                                            e.getMessage());
+        }
+        return cache;
+    }
+
+
+    /**
+     * Detaches the cache from its tree. Its statistics stay readable.
+     */
+    public void detach()
+    {
+        if (RadixTree.queryCache == this)
+            detachAll();
+    }
+
+
+    static void detachAll()
+    {
+        RadixTree.queryCache = null;
+        try
+        {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer()
+                                                    .unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            // Not registered
+        }
+    }
+
+
+    /**
+     * Same as RadixTree.countOf on the tree of the cache.
+     * @param nucleotide A DNA segment
+     * @return countOfDNA of the segment, or 0 if it is not in the tree
+     */
+    public int countOf(String nucleotide)
+    {
+        return lookup(COUNT, nucleotide);
+    }
+
+
+    /**
+     * Same as RadixTree.findDNA on the tree of the cache.
+     * @param nucleotide A DNA segment
+     * @return true if the segment is in the tree; else false
+     */
+    public boolean findDNA(String nucleotide)
+    {
+        return lookup(COUNT, nucleotide) > 0;
+    }
+
+
+    /**
+     * Same as RadixTree.countWithPrefix on the tree of the cache.
+     * @param prefix A DNA segment; the empty string matches every segment
+     * @return The number of unique segments that start with prefix
+     */
+    public int countWithPrefix(String prefix)
+    {
+        return lookup(PREFIX_COUNT, prefix);
+    }
+
+
+    int lookup(byte kind, String key)
+    {
+        long hash = DnaCodec.hash64(key) ^ kind;
+        Segment segment = segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+        int  index = versionIndex(key);
+        long version = versions.get(index);
+        Entry entry;
+
+        synchronized (segment)
+        {
+            entry = segment.get(hash);
+        }
+
+        if (entry != null && entry.kind == kind && entry.key.equals(key))
+        {
+            if (entry.version == version)
+            {
+                hits.increment();
+                return entry.result;
+            }
+            stale.increment();
+        }
+        misses.increment();
+
+        // Read the version before the tree, so that a change made while
+        // the result is computed leaves the entry stale
+        int result = kind == COUNT ? RadixTree.countOf(key, tree)
+                                   : RadixTree.countWithPrefix(key, tree);
+        entry = new Entry(kind, key, version, result);
+        synchronized (segment)
+        {
+            segment.put(hash, entry);
+        }
+        return result;
+    }
+
+
+    // Version slot of the subtree that holds the segments starting with
+    // key, or of the whole tree if key is shorter than versionBases
+    int versionIndex(String key)
+    {
+        int index = 0;
+
+        if (key.length() < versionBases)
+            return wholeTree;
+        for (int i = 0; i < versionBases; i++)
+        {
+            int base = RadixTree.baseIndex(key.charAt(i));
+            if (base < 0)
+                return wholeTree;
+            index = index * RadixTree.MAX_CHILDREN + base;
+        }
+        return index;
+    }
+
+
+    /**
+     * Marks the entries of the subtree a segment falls into as stale.
+     * Called from RadixTree.insertDNA and deleteDNA after the change.
+     * @param nucleotide The segment inserted or deleted
+     */
+    void invalidate(String nucleotide)
+    {
+        int index = versionIndex(nucleotide);
+
+        if (index != wholeTree)
+            versions.incrementAndGet(index);
+        versions.incrementAndGet(wholeTree);
+    }
+
+
+    /**
+     * Removes all entries. The statistics are kept.
+     */
+    public void clear()
+    {
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                segment.clear();
+            }
+    }
+
+
+    /**
+     * Returns the number of entries in the cache.
+     * @return The size of the cache
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for (Segment segment : segments)
+            synchronized (segment)
+            {
+                size = size + segment.size();
+            }
+        return size;
+    }
+
+
+    @Override
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    @Override
+    public long getStaleEntries()
+    {
+        return stale.sum();
+    }
+
+    @Override
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    @Override
+    public double getHitRatio()
+    {
+        long lookups = hits.sum() + misses.sum();
+        return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+    }
+
+    @Override
+    public void reset()
+    {
+        hits.reset();
+        misses.reset();
+        stale.reset();
+        evictions.reset();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return String.format("hits=%d misses=%d stale=%d evictions=%d " +
+                    "hit ratio=%.3f size=%d", getHits(), getMisses(),
+                    getStaleEntries(), getEvictions(), getHitRatio(), size());
+    }
+
+
+    // A cached result
+    static class Entry {
+        final byte kind;          // COUNT or PREFIX_COUNT
+        final String key;
+        final long version;       // Version of the subtree of key
+        final int result;
+
+        Entry(byte kind, String key, long version, int result)
+        {
+            this.kind = kind;
+            this.key = key;
+            this.version = version;
+            this.result = result;
+        }
+    }
+
+
+    // One LRU list. Guarded by its own monitor.
+    class Segment extends LinkedHashMap<Long, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        final int capacity;
+
+        Segment(int capacity)
+        {
+            super(capacity * 4 / 3 + 1, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest)
+        {
+            if (size() <= capacity)
+                return false;
+            evictions.increment();
+            return true;
+        }
+    }
+}
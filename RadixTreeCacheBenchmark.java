@@ -0,0 +1,136 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+//
+// Measures RadixTreeCache on skewed query streams. Queries for countOf
+// pick stored segments from a Zipf distribution with exponent s, so that
+// the segment of rank r is asked for in proportion to 1 / r^s. A small
+// share of the operations inserts or deletes a segment, which makes the
+// entries of its subtree stale. The time per query is compared with
+// RadixTree.countOf without a cache, over the same stream.
+//
+// Usage: RadixTreeCacheBenchmark [segments] [queries]
+//
+public class RadixTreeCacheBenchmark {
+
+    // Keeps the JIT from dropping the queries
+    static long sink;
+
+    public static void main(String[] args)
+    {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        double[] exponents = { 0.8, 1.0, 1.2 };
+        int[] capacities = { 1024, 16384 };
+        double[] writeFractions = { 0, 0.001 };
+
+        RadixTree.Node tree = new RadixTree.Node();
+        tree.prefixCode = "";
+        String[] stored = new String[segments];
+        Random random = new Random(42);
+        for (int i = 0; i < segments; i++)
+        {
+            stored[i] = RadixTree.generateRandomDNA(random);
+            RadixTree.insertDNA(stored[i], tree);
+        }
+
+        System.out.println("zipfExponent,capacity,writeFraction," +
+                    "uncachedNs,cachedNs,hitRatio,staleEntries,evictions");
+        for (double exponent : exponents)
+        {
+            int[] stream = zipfStream(segments, exponent, queries, random);
+            for (int capacity : capacities)
+                for (double writeFraction : writeFractions)
+                    run(tree, stored, stream, exponent, capacity,
+                                                        writeFraction);
+        }
+    }
+
+
+    /**
+     * Draws ranks from a Zipf distribution by inverting its cumulative
+     * distribution with a binary search.
+     * @param n Number of ranks
+     * @param exponent The exponent s of the distribution
+     * @param count Number of ranks to draw
+     * @param random Source of randomness
+     * @return count ranks between 0 and n - 1; 0 is the most frequent
+     */
+    static int[] zipfStream(int n, double exponent, int count, Random random)
+    {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        int[] stream = new int[count];
+
+        for (int r = 0; r < n; r++)
+        {
+            sum = sum + 1 / Math.pow(r + 1, exponent);
+            cumulative[r] = sum;
+        }
+        for (int i = 0; i < count; i++)
+        {
+            int r = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            stream[i] = Math.min(r < 0 ? -r - 1 : r, n - 1);
+        }
+        return stream;
+    }
+
+
+    static void run(RadixTree.Node tree, String[] stored, int[] stream,
+                    double exponent, int capacity, double writeFraction)
+    {
+        int writeEvery = writeFraction == 0 ? Integer.MAX_VALUE
+                                            : (int) (1 / writeFraction);
+        long uncached = Long.MAX_VALUE;
+        long cached = Long.MAX_VALUE;
+        RadixTreeCache cache = null;
+
+        // Best of three rounds each; the first rounds warm up the JIT
+        for (int round = 0; round < 3; round++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < stream.length; i++)
+            {
+                if (i % writeEvery == writeEvery - 1)
+                    write(tree, stored[stream[i]], i / writeEvery);
+                sink += RadixTree.countOf(stored[stream[i]], tree);
+            }
+            uncached = Math.min(uncached, System.nanoTime() - start);
+
+            cache = RadixTreeCache.attach(tree, capacity);
+            start = System.nanoTime();
+            for (int i = 0; i < stream.length; i++)
+            {
+                if (i % writeEvery == writeEvery - 1)
+                    write(tree, stored[stream[i]], i / writeEvery);
+                sink += cache.countOf(stored[stream[i]]);
+            }
+            cached = Math.min(cached, System.nanoTime() - start);
+            cache.detach();
+        }
+
+        System.out.printf("%.1f,%d,%.3f,%.1f,%.1f,%.3f,%d,%d%n",
+                    exponent, capacity, writeFraction,
+                    (double) uncached / stream.length,
+                    (double) cached / stream.length, cache.getHitRatio(),
+                    cache.getStaleEntries(), cache.getEvictions());
+    }
+
+
+    // Inserts and deletes alternately, so that the tree keeps its size
+    static void write(RadixTree.Node tree, String nucleotide, int write)
+    {
+        if ((write & 1) == 0)
+            RadixTree.insertDNA(nucleotide, tree);
+        else
+            RadixTree.deleteDNA(nucleotide, tree);
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+
+//
+// JMX view of RadixTreeCache.
+//
+public interface RadixTreeCacheMBean {
+
+    long getHits();
+
+    long getMisses();
+
+    long getStaleEntries();
+
+    long getEvictions();
+
+    double getHitRatio();
+
+    void reset();
+}
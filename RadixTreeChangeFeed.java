@@ -0,0 +1,280 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+//
+// Publishes the mutations of one radix tree to subscribers, so that caches,
+// replicas and derived indexes can follow the tree incrementally instead of
+// rereading it with gatherStrings. Once a feed is attached to a tree,
+// RadixTree.insertDNA and deleteDNA on that tree publish:
+//   INSERTED  key, with its countOfDNA after the insert
+//   REMOVED   key, with its countOfDNA after the delete; 0 once the last
+//             copy is gone
+//   SPLIT     path of a node that was split in two by an insert; the
+//             event comes before the INSERTED event of that insert
+// The tree never merges nodes, so there are no merge events.
+//
+// Every subscription has its own bounded ring buffer. Publishers claim a
+// slot with an atomic increment, fill it in and then publish the slot by
+// writing its sequence number, so no lock is taken. A subscriber consumes
+// every event that is available in one batch and frees the slots with a
+// single write at the end of the batch. When a ring is full, the publisher
+// waits for the subscriber (backpressure): a slow subscriber slows the
+// tree down rather than losing events. Subscriptions that are closed no
+// longer hold publishers back.
+//
+// Only one tree can have a feed at a time. Attach it before the tree is
+// shared with other threads.
+//
+public class RadixTreeChangeFeed {
+
+    public static final byte INSERTED = 1;
+    public static final byte REMOVED = 2;
+    public static final byte SPLIT = 3;
+
+    /**
+     * Receives the events of a subscription.
+     */
+    public interface Listener {
+
+        /**
+         * Handles one event.
+         * @param type INSERTED, REMOVED or SPLIT
+         * @param key The DNA segment, or the path of the split node
+         * @param count countOfDNA of key after the change; 0 for SPLIT
+         * @param endOfBatch true for the last event that was available, so
+         *                   that work can be batched until then
+         */
+        void onEvent(byte type, String key, int count, boolean endOfBatch);
+    }
+
+    final RadixTree.Node tree;
+    final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+
+    RadixTreeChangeFeed(RadixTree.Node tree)
+    {
+        this.tree = tree;
+    }
+
+
+    /**
+     * Attaches a new feed to a tree, replacing the feed of any other tree.
+     * @param tree The root node of a radix tree
+     * @return The feed
+     */
+    public static RadixTreeChangeFeed attach(RadixTree.Node tree)
+    {
+        RadixTreeChangeFeed feed = new RadixTreeChangeFeed(tree);
+
+        RadixTree.changeFeed = feed;
+        return feed;
+    }
+
+
+    /**
+     * Stops publishing. Events already published can still be polled.
+     */
+    public void detach()
+    {
+        if (RadixTree.changeFeed == this)
+            RadixTree.changeFeed = null;
+    }
+
+
+    /**
+     * Subscribes to the events published from now on. The caller polls for
+     * them.
+     * @param capacity Number of events the ring buffer holds; rounded up to
+     *                 a power of two
+     * @return The subscription
+     */
+    public Subscription subscribe(int capacity)
+    {
+        Subscription subscription = new Subscription(capacity);
+
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+
+    /**
+     * Subscribes to the events published from now on, and hands them to
+     * listener on a new daemon thread until the subscription is closed.
+     * @param capacity Number of events the ring buffer holds
+     * @param listener Receives the events
+     * @return The subscription
+     */
+    public Subscription subscribe(int capacity, Listener listener)
+    {
+        Subscription subscription = subscribe(capacity);
+        Thread consumer = new Thread(() ->
+        {
+            while (!subscription.closed)
+                if (subscription.poll(listener, capacity) == 0)
+                    LockSupport.parkNanos(50000);
+        }, "radixtree-change-feed");
+
+        consumer.setDaemon(true);
+        consumer.start();
+        return subscription;
+    }
+
+
+    /**
+     * Publishes the split of a node. Called from insertDNA.
+     * @param key The segment being inserted
+     * @param bases Length of the path of the split node; the split node
+     *              stands for the first bases of key
+     */
+    void nodeSplit(String key, int bases)
+    {
+        publish(SPLIT, key.substring(0, bases), 0);
+    }
+
+
+    // Called from the RadixTree entry points after a change, with the
+    // count of the key after it, and from nodeSplit
+    void publish(byte type, String key, int count)
+    {
+        for (Subscription subscription : subscriptions)
+            subscription.offer(type, key, count);
+    }
+
+
+    /**
+     * The ring buffer of one subscriber.
+     */
+    public class Subscription implements AutoCloseable {
+
+        final int mask;
+        final byte[] types;
+        final String[] keys;
+        final int[] counts;
+
+        // Sequence number of the event in each slot; a slot is published
+        // once it holds the sequence number that was claimed for it
+        final AtomicLongArray published;
+
+        final AtomicLong claimed = new AtomicLong(); // Next sequence to claim
+        final AtomicLong consumed = new AtomicLong(); // Next one to consume
+        volatile boolean closed;
+
+        // Statistics
+        final AtomicLong waits = new AtomicLong(); // Publishes that waited
+
+        Subscription(int capacity)
+        {
+            int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+            mask = size - 1;
+            types = new byte[size];
+            keys = new String[size];
+            counts = new int[size];
+            published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++)
+                published.set(i, -1);
+        }
+
+
+        void offer(byte type, String key, int count)
+        {
+            if (closed)
+                return;
+
+            long sequence = claimed.getAndIncrement();
+            int  slot = (int) sequence & mask;
+
+            // Wait until the subscriber has freed the slot
+            if (sequence - consumed.get() > mask)
+            {
+                waits.incrementAndGet();
+                for (int spins = 0; sequence - consumed.get() > mask &&
+                                                        !closed; spins++)
+                    if (spins < 100)
+                        Thread.onSpinWait();
+                    else
+                        LockSupport.parkNanos(1000);
+            }
+
+            types[slot] = type;
+            keys[slot] = key;
+            counts[slot] = count;
+            published.lazySet(slot, sequence);
+        }
+
+
+        /**
+         * Hands the available events to listener, oldest first.
+         * @param listener Receives the events
+         * @param maxEvents Largest number of events to hand over
+         * @return The number of events handed over
+         */
+        public int poll(Listener listener, int maxEvents)
+        {
+            long first = consumed.get();
+            long last = first;
+
+            // Find the end of the run of published events
+            while (last - first < maxEvents &&
+                            published.get((int) last & mask) == last)
+                last++;
+
+            for (long sequence = first; sequence < last; sequence++)
+            {
+                int slot = (int) sequence & mask;
+                String key = keys[slot];
+
+                keys[slot] = null;
+                listener.onEvent(types[slot], key, counts[slot],
+                                                    sequence == last - 1);
+            }
+
+            // Free all slots of the batch at once
+            if (last > first)
+                consumed.lazySet(last);
+            return (int) (last - first);
+        }
+
+
+        /**
+         * Returns the number of events waiting to be polled.
+         * @return The backlog of the subscriber
+         */
+        public long backlog()
+        {
+            return Math.max(0, claimed.get() - consumed.get());
+        }
+
+
+        /**
+         * Returns how many publishes had to wait for a full ring buffer.
+         * @return The number of waits
+         */
+        public long waits()
+        {
+            return waits.get();
+        }
+
+
+        /**
+         * Cancels the subscription. Publishers no longer wait for it.
+         */
+        @Override
+        public void close()
+        {
+            closed = true;
+            subscriptions.remove(this);
+        }
+    }
+}
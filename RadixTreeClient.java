@@ -0,0 +1,247 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+
+//
+// Client of a RadixTreeServer. The plain methods, insertDNA, findDNA,
+// deleteDNA, count and prefix, send one request and wait for its reply.
+// For pipelining, queue any number of requests with send, push them out
+// with flush, and read the replies in the same order with receive. A
+// client is used by one thread at a time.
+//
+public class RadixTreeClient implements Closeable {
+
+    final SocketChannel channel;
+    ByteBuffer out = ByteBuffer.allocate(RadixTreeServer.BUFFER_BYTES);
+    ByteBuffer in = ByteBuffer.allocate(RadixTreeServer.BUFFER_BYTES);
+    final ArrayDeque<Byte> awaiting = new ArrayDeque<>(); // Ops sent
+
+    // Payload of the last reply received
+    int count;                // COUNT: countOfDNA; PREFIX: matching segments
+    List<String> keys;        // PREFIX: the segments listed, if requested
+
+
+    RadixTreeClient(SocketChannel channel)
+    {
+        this.channel = channel;
+        in.flip();
+    }
+
+
+    /**
+     * Connects to a server.
+     * @param address tcp:[host:]port or unix:path
+     * @return The client
+     * @throws IOException If the server cannot be reached
+     */
+    public static RadixTreeClient connect(String address) throws IOException
+    {
+        SocketAddress socketAddress = RadixTreeServer.parseAddress(address);
+        SocketChannel channel;
+
+        if (socketAddress instanceof UnixDomainSocketAddress)
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        else
+        {
+            channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        channel.connect(socketAddress);
+        return new RadixTreeClient(channel);
+    }
+
+
+    /**
+     * Queues a request. Nothing is sent before flush, or before the queue
+     * fills its buffer.
+     * @param op One of the ops of RadixTreeServer, eg, RadixTreeServer.FIND
+     * @param nucleotide The DNA segment, or prefix, of the request
+     * @param limit For PREFIX, the most segments to list; else ignored
+     * @throws IOException If the request cannot be sent
+     */
+    public void send(byte op, String nucleotide, int limit) throws IOException
+    {
+        for (int i = 0; i < nucleotide.length(); i++)
+            if (RadixTree.baseIndex(nucleotide.charAt(i)) < 0)
+                throw new IllegalArgumentException("Invalid base " +
+                                            nucleotide.charAt(i) + " found");
+
+        if (out.position() > out.capacity() / 2)
+            flush();
+
+        out.put(op);
+        out = RadixTreeServer.writeSegment(out, nucleotide);
+        if (op == RadixTreeServer.PREFIX)
+        {
+            out = RadixTreeServer.ensure(out, 5);
+            DnaCodec.writeVarInt(out, limit);
+        }
+        awaiting.add(op);
+    }
+
+
+    /**
+     * Sends the queued requests.
+     * @throws IOException If the server cannot be reached
+     */
+    public void flush() throws IOException
+    {
+        out.flip();
+        while (out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+
+    /**
+     * Waits for the reply to the oldest request that has not been answered.
+     * The count and keys of COUNT and PREFIX replies are left in the
+     * fields of the same name.
+     * @return The status of the reply, eg, RadixTreeServer.OK
+     * @throws IOException If the connection fails or the server reports an
+     *                     error
+     */
+    public byte receive() throws IOException
+    {
+        if (awaiting.isEmpty())
+            throw new IllegalStateException("No request is waiting");
+        if (out.position() > 0)
+            flush();
+
+        byte op = awaiting.peek();
+        while (true)
+        {
+            in.mark();
+            try
+            {
+                byte status = in.get();
+
+                if (status == RadixTreeServer.ERROR)
+                {
+                    // The reply is complete; later replies can still be read
+                    awaiting.remove();
+                    throw new IOException("Server rejected the request");
+                }
+                if (op == RadixTreeServer.COUNT)
+                    count = DnaCodec.readVarInt(in);
+                else if (op == RadixTreeServer.PREFIX)
+                {
+                    count = DnaCodec.readVarInt(in);
+                    int listed = DnaCodec.readVarInt(in);
+                    keys = new ArrayList<>(listed);
+                    for (int i = 0; i < listed; i++)
+                        keys.add(RadixTreeServer.readSegment(in));
+                }
+                awaiting.remove();
+                return status;
+            }
+            catch (BufferUnderflowException e)
+            {
+                // Read more of the reply
+                in.reset();
+                in.compact();
+                if (!in.hasRemaining())
+                    in = RadixTreeLog.grow(in, in.capacity());
+                int read = channel.read(in);
+                in.flip();
+                if (read < 0)
+                    throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+
+    /**
+     * Inserts a DNA segment into the tree of the server.
+     * @param nucleotide A DNA segment
+     * @throws IOException If the server cannot be reached, or rejects the
+     *                     segment because it is empty or has letters
+     *                     outside the alphabet
+     */
+    public void insertDNA(String nucleotide) throws IOException
+    {
+        send(RadixTreeServer.INSERT, nucleotide, 0);
+        receive();
+    }
+
+
+    /**
+     * Finds a DNA segment in the tree of the server.
+     * @param nucleotide A DNA segment
+     * @return true if the segment is in the tree; else false
+     * @throws IOException If the server cannot be reached
+     */
+    public boolean findDNA(String nucleotide) throws IOException
+    {
+        send(RadixTreeServer.FIND, nucleotide, 0);
+        return receive() == RadixTreeServer.OK;
+    }
+
+
+    /**
+     * Deletes a DNA segment from the tree of the server.
+     * @param nucleotide A DNA segment
+     * @return true if the segment was found and deleted; else false
+     * @throws IOException If the server cannot be reached
+     */
+    public boolean deleteDNA(String nucleotide) throws IOException
+    {
+        send(RadixTreeServer.DELETE, nucleotide, 0);
+        return receive() == RadixTreeServer.OK;
+    }
+
+
+    /**
+     * Returns how many copies of a DNA segment the tree holds.
+     * @param nucleotide A DNA segment
+     * @return countOfDNA of the segment, or 0 if it is not in the tree
+     * @throws IOException If the server cannot be reached
+     */
+    public int count(String nucleotide) throws IOException
+    {
+        send(RadixTreeServer.COUNT, nucleotide, 0);
+        receive();
+        return count;
+    }
+
+
+    /**
+     * Lists the unique DNA segments that start with prefix.
+     * @param prefix A DNA segment; the empty string matches every segment
+     * @param limit The most segments to list
+     * @return Up to limit segments in alphabetical order. The number of all
+     *         segments with the prefix is left in count.
+     * @throws IOException If the server cannot be reached
+     */
+    public List<String> prefix(String prefix, int limit) throws IOException
+    {
+        send(RadixTreeServer.PREFIX, prefix, limit);
+        receive();
+        return keys;
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+//
+// The difference between two versions of a radix tree, as a list of
+// changes in alphabetical order of their segments:
+//   INSERTED  a segment that only the newer tree holds, with its count
+//   DELETED   a segment that only the older tree holds
+//   COUNT     a segment whose countOfDNA changed, with its new count
+// diff finds the changes by walking both trees together by prefixCode.
+// Every node carries a hash of its subtree (subtreeHash, maintained by
+// RadixTree.refreshSubtree), and subtrees with equal labels and hashes are
+// skipped without being visited, so a diff only descends along the paths
+// that changed. applyDelta brings a copy of the older tree up to date.
+//
+// A delta file holds the changes with the same prefix compression as a
+// sorted key list: every segment is stored as the number of bases it
+// shares with the segment before it and the packed remaining bases.
+//   [magic][version][alphabet]
+//   [type][shared bases][length of the rest][packed rest][count]...
+//   [END][crc32]
+// The count is omitted for DELETED. Like a checkpoint, a delta can only be
+// read with the alphabet it was written with.
+//
+public class RadixTreeDelta {
+
+    static final byte INSERTED = 1;
+    static final byte DELETED = 2;
+    static final byte COUNT = 3;
+    static final byte END = 0;
+
+    static final int DELTA_MAGIC = 0x52445844;   // "RDXD"
+    static final int DELTA_VERSION = 1;
+
+    // Changes, in alphabetical order of their segments
+    final List<Change> changes = new ArrayList<>();
+
+
+    /**
+     * One change of a delta.
+     */
+    static class Change {
+        final byte type;          // INSERTED, DELETED or COUNT
+        final String key;         // The DNA segment
+        final int count;          // countOfDNA in the newer tree; 0 if
+                                  // the segment was deleted
+
+        Change(byte type, String key, int count)
+        {
+            this.type = type;
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+
+    /**
+     * Returns the number of changes.
+     * @return The size of the delta
+     */
+    public int size()
+    {
+        return changes.size();
+    }
+
+
+    /**
+     * Computes the changes that turn one tree into another.
+     * @param older The root node of a radix tree
+     * @param newer The root node of a later version of the tree
+     * @return The delta from older to newer
+     */
+    public static RadixTreeDelta diff(RadixTree.Node older,
+                                                    RadixTree.Node newer)
+    {
+        RadixTreeDelta delta = new RadixTreeDelta();
+
+        delta.compare(older, newer, "");
+        return delta;
+    }
+
+
+    /**
+     * Compares two nodes whose labels end at the same path, so that both
+     * stand for the segment path.
+     * @param a A node of the older tree
+     * @param b A node of the newer tree
+     * @param path The segment spelled out from the root up to a and b
+     */
+    void compare(RadixTree.Node a, RadixTree.Node b, String path)
+    {
+        int countA = a.endOfDNA ? a.countOfDNA : 0;
+        int countB = b.endOfDNA ? b.countOfDNA : 0;
+
+        if (countA == 0 && countB > 0)
+            changes.add(new Change(INSERTED, path, countB));
+        else if (countA > 0 && countB == 0)
+            changes.add(new Change(DELETED, path, 0));
+        else if (countA != countB)
+            changes.add(new Change(COUNT, path, countB));
+
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+        {
+            RadixTree.Node childA = a.childNode[i];
+            RadixTree.Node childB = b.childNode[i];
+
+            if (RadixTree.keysInSubtree(childA) == 0)
+                addAll(childB, path, INSERTED);
+            else if (RadixTree.keysInSubtree(childB) == 0)
+                addAll(childA, path, DELETED);
+            else
+                compareChildren(childA, childB, path);
+        }
+    }
+
+
+    /**
+     * Compares two children that start with the same base.
+     * @param a A child of a node of the older tree
+     * @param b A child of a node of the newer tree
+     * @param path The segment spelled out up to the parents of a and b
+     */
+    void compareChildren(RadixTree.Node a, RadixTree.Node b, String path)
+    {
+        String labelA = a.prefixCode;
+        String labelB = b.prefixCode;
+        int shorter = Math.min(labelA.length(), labelB.length());
+        int matched = DnaMatcher.commonPrefix(labelA, 0, labelB, 0, shorter);
+
+        if (labelA.length() == labelB.length() && matched == shorter)
+        {
+            // Equal hashes mean equal subtrees; nothing changed below here
+            if (a.subtreeHash != b.subtreeHash)
+                compare(a, b, path + labelA);
+        }
+        // The trees were split at different bases, eg, AC + GT in one and
+        // ACGT in the other. Split the longer label the same way, in a
+        // copy, and compare again.
+        else if (matched == labelA.length())
+            compare(a, splitCopy(b, matched), path + labelA);
+        else if (matched == labelB.length())
+            compare(splitCopy(a, matched), b, path + labelB);
+        // The labels part in the middle; no segment is in both subtrees
+        else
+        {
+            addAll(a, path, DELETED);
+            addAll(b, path, INSERTED);
+        }
+    }
+
+
+    /**
+     * Returns a copy of node split after its first bases, as insertDNA
+     * would split it. node itself is not changed.
+     * @param node A node of a radix tree
+     * @param bases Number of bases of the label of node to keep in the copy;
+     *              less than the length of the label
+     * @return A node labelled with the first bases, whose only child holds
+     *         the rest of the label and the children of node
+     */
+    static RadixTree.Node splitCopy(RadixTree.Node node, int bases)
+    {
+        RadixTree.Node head = new RadixTree.Node();
+        RadixTree.Node tail = new RadixTree.Node();
+
+        tail.prefixCode = node.prefixCode.substring(bases);
+        tail.endOfDNA = node.endOfDNA;
+        tail.countOfDNA = node.countOfDNA;
+        System.arraycopy(node.childNode, 0, tail.childNode, 0,
+                                                    RadixTree.MAX_CHILDREN);
+        RadixTree.refreshSubtree(tail);
+
+        head.prefixCode = node.prefixCode.substring(0, bases);
+        head.childNode[RadixTree.baseIndex(tail.prefixCode.charAt(0))] = tail;
+        RadixTree.refreshSubtree(head);
+        return head;
+    }
+
+
+    /**
+     * Adds a change for every segment in a subtree.
+     * @param node A node of a radix tree, or null
+     * @param path The segment spelled out up to the parent of node
+     * @param type INSERTED or DELETED
+     */
+    void addAll(RadixTree.Node node, String path, byte type)
+    {
+        if (RadixTree.keysInSubtree(node) == 0)
+            return;
+
+        path = path + node.prefixCode;
+        if (node.endOfDNA == true)
+            changes.add(new Change(type, path,
+                                    type == DELETED ? 0 : node.countOfDNA));
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            addAll(node.childNode[i], path, type);
+    }
+
+
+    /**
+     * Applies a delta to a tree with RadixTree.setCount, so the cost of a
+     * change does not depend on how much its count changed. Every changed
+     * segment is set to the count it has in the newer tree, so applying
+     * the same delta twice does no harm.
+     * @param delta The changes from an older to a newer tree
+     * @param tree The root node of a copy of the older tree
+     */
+    public static void applyDelta(RadixTreeDelta delta, RadixTree.Node tree)
+    {
+        for (Change change : delta.changes)
+            RadixTree.setCount(change.key, change.count, tree);
+    }
+
+
+    /**
+     * Writes the delta to a file, replacing the file if it exists.
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path file) throws IOException
+    {
+        try (OutputStream raw = new BufferedOutputStream(
+                                    Files.newOutputStream(file), 1 << 16))
+        {
+            write(raw);
+        }
+    }
+
+
+    /**
+     * Writes the delta, followed by its CRC32.
+     * @param raw The stream to write to
+     * @throws IOException If raw cannot be written
+     */
+    void write(OutputStream raw) throws IOException
+    {
+        CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        String previous = "";
+
+        out.writeInt(DELTA_MAGIC);
+        out.writeByte(DELTA_VERSION);
+        out.writeUTF(RadixTree.alphabet.symbols);
+
+        for (Change change : changes)
+        {
+            int shared = DnaMatcher.commonPrefix(previous, 0, change.key, 0,
+                            Math.min(previous.length(), change.key.length()));
+            String rest = change.key.substring(shared);
+
+            out.writeByte(change.type);
+            DnaCodec.writeVarInt(out, shared);
+            DnaCodec.writeVarInt(out, rest.length());
+            out.write(DnaCodec.pack(rest));
+            if (change.type != DELETED)
+                DnaCodec.writeVarInt(out, change.count);
+            previous = change.key;
+        }
+        out.writeByte(END);
+        out.flush();
+
+        new DataOutputStream(raw).writeInt(
+                                    (int) checked.getChecksum().getValue());
+        raw.flush();
+    }
+
+
+    /**
+     * Reads a delta written by save and verifies its CRC32.
+     * @param file The file to read
+     * @return The delta
+     * @throws IOException If the file cannot be read, is corrupt, or was
+     *                     written with another alphabet
+     */
+    public static RadixTreeDelta load(Path file) throws IOException
+    {
+        try (InputStream raw = new BufferedInputStream(
+                                    Files.newInputStream(file), 1 << 16))
+        {
+            return read(raw, file.toString());
+        }
+    }
+
+
+    static RadixTreeDelta read(InputStream raw, String name)
+                                                        throws IOException
+    {
+        CheckedInputStream checked = new CheckedInputStream(raw, new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        RadixTreeDelta delta = new RadixTreeDelta();
+        String previous = "";
+
+        if (in.readInt() != DELTA_MAGIC)
+            throw new IOException("Not a radix tree delta: " + name);
+        if (in.readByte() != DELTA_VERSION)
+            throw new IOException("Unsupported delta version: " + name);
+
+        String symbols = in.readUTF();
+        if (!symbols.equals(RadixTree.alphabet.symbols))
+            throw new IOException(name + " was written with alphabet " +
+                            symbols + ", not " + RadixTree.alphabet.symbols);
+
+        for (byte type = in.readByte(); type != END; type = in.readByte())
+        {
+            if (type != INSERTED && type != DELETED && type != COUNT)
+                throw new IOException("Corrupt delta: " + name);
+
+            int shared = DnaCodec.readVarInt(in);
+            int restLen = DnaCodec.readVarInt(in);
+            if (shared < 0 || shared > previous.length() || restLen < 0 ||
+                        DnaCodec.packedLength(restLen) > in.available())
+                throw new IOException("Corrupt delta: " + name);
+
+            byte[] packed = new byte[DnaCodec.packedLength(restLen)];
+            in.readFully(packed);
+            String key = previous.substring(0, shared) +
+                                    DnaCodec.unpack(packed, 0, restLen);
+            int count = type == DELETED ? 0 : DnaCodec.readVarInt(in);
+
+            delta.changes.add(new Change(type, key, count));
+            previous = key;
+        }
+
+        int expected = (int) checked.getChecksum().getValue();
+        if (new DataInputStream(raw).readInt() != expected)
+            throw new IOException("Corrupt delta: " + name);
+        return delta;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+
+//
+// Compares shipping a delta with shipping the whole tree. Two copies of a
+// tree of random segments are built, a fraction of the segments of the
+// second copy is inserted or deleted, and the diff is timed. The size of
+// the delta file is compared with the size of a checkpoint image of the
+// whole tree.
+//
+// Usage: RadixTreeDeltaBenchmark [segments]
+//
+public class RadixTreeDeltaBenchmark {
+
+    public static void main(String[] args) throws IOException
+    {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        double[] changedFractions = { 0, 0.0001, 0.001, 0.01, 0.1 };
+
+        RadixTree.Node older = new RadixTree.Node();
+        older.prefixCode = "";
+        String[] stored = new String[segments];
+        Random random = new Random(42);
+        for (int i = 0; i < segments; i++)
+        {
+            stored[i] = RadixTree.generateRandomDNA(random);
+            RadixTree.insertDNA(stored[i], older);
+        }
+        long treeBytes = imageBytes(older);
+
+        System.out.println("changedFraction,changes,diffMs,applyMs," +
+                                "deltaBytes,treeBytes,deltaToTreeRatio");
+        for (double fraction : changedFractions)
+            run(older, stored, fraction, treeBytes);
+    }
+
+
+    static void run(RadixTree.Node older, String[] stored, double fraction,
+                                        long treeBytes) throws IOException
+    {
+        RadixTree.Node newer = new RadixTree.Node();
+        newer.prefixCode = "";
+        for (String nucleotide : stored)
+            RadixTree.insertDNA(nucleotide, newer);
+
+        // Half new segments, half deletes of stored ones
+        Random random = new Random(7);
+        int changes = (int) (stored.length * fraction);
+        for (int i = 0; i < changes; i++)
+            if (i % 2 == 0)
+                RadixTree.insertDNA(RadixTree.generateRandomDNA(random),
+                                                                    newer);
+            else
+                RadixTree.deleteDNA(stored[random.nextInt(stored.length)],
+                                                                    newer);
+
+        long start = System.nanoTime();
+        RadixTreeDelta delta = RadixTreeDelta.diff(older, newer);
+        long diffNanos = System.nanoTime() - start;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        delta.write(bytes);
+
+        // Apply to a third copy, so that older stays as it was
+        RadixTree.Node copy = new RadixTree.Node();
+        copy.prefixCode = "";
+        for (String nucleotide : stored)
+            RadixTree.insertDNA(nucleotide, copy);
+        start = System.nanoTime();
+        RadixTreeDelta.applyDelta(delta, copy);
+        long applyNanos = System.nanoTime() - start;
+
+        System.out.printf("%.4f,%d,%.1f,%.1f,%d,%d,%.5f%n", fraction,
+                    delta.size(), diffNanos / 1e6, applyNanos / 1e6,
+                    bytes.size(), treeBytes, (double) bytes.size() / treeBytes);
+    }
+
+
+    // Size of the tree as written to a checkpoint
+    static long imageBytes(RadixTree.Node tree) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        RadixTreeLog.writeNode(out, tree);
+        out.flush();
+        return bytes.size();
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+//
+// Writes every unique DNA segment of a tree with its count to a file, in
+// alphabetical order, in one of three formats:
+//   FASTA   >n count=c, then the segment on the next line; n numbers the
+//           segments from 1
+//   TSV     segment, a tab and the count, one segment per line
+//   BINARY  a header [magic][version][alphabet], then for every segment
+//           [length in bases][packed bases][count], with lengths and counts
+//           written as varints (DnaCodec)
+//
+// The tree is cut into partitions: the subtrees of the children of the
+// root or, when the root has too few children to keep every thread busy,
+// of its grandchildren. The children of every node are in alphabetical
+// order, so the partitions follow each other in the same order as their
+// segments. Every partition is walked by its own task and written through
+// a buffer of BUFFER_BYTES to a temporary file next to the output file.
+// The partitions are appended to the output file in order with
+// FileChannel.transferTo as soon as they are done, while later ones are
+// still being written. Memory use is one buffer and one path per thread,
+// whatever the size of the tree; segments are never collected or sorted.
+//
+// The tree must not be changed while it is exported.
+//
+public class RadixTreeExport {
+
+    public static final byte FASTA = 1;
+    public static final byte TSV = 2;
+    public static final byte BINARY = 3;
+
+    static final int EXPORT_MAGIC = 0x52445845;  // "RDXE"
+    static final int EXPORT_VERSION = 1;
+
+    static final int BUFFER_BYTES = 1 << 20;
+
+    // Partitions per thread to aim for, so that uneven subtrees still
+    // share the work out
+    static final int PARTITIONS_PER_THREAD = 4;
+
+
+    /**
+     * Exports a tree, using a thread per processor.
+     * @param tree The root node of a radix tree
+     * @param file The file to write; replaced if it exists
+     * @param format FASTA, TSV or BINARY
+     * @return The number of segments written
+     * @throws IOException If the file cannot be written
+     */
+    public static long export(RadixTree.Node tree, Path file, byte format)
+                                                        throws IOException
+    {
+        return export(tree, file, format,
+                                Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Exports a tree.
+     * @param tree The root node of a radix tree
+     * @param file The file to write; replaced if it exists
+     * @param format FASTA, TSV or BINARY
+     * @param threads Number of partitions written at the same time
+     * @return The number of segments written
+     * @throws IOException If the file cannot be written
+     */
+    public static long export(RadixTree.Node tree, Path file, byte format,
+                                            int threads) throws IOException
+    {
+        if (format != FASTA && format != TSV && format != BINARY)
+            throw new IllegalArgumentException("Unknown format " + format);
+
+        List<Partition> partitions = partition(tree,
+                                        threads * PARTITIONS_PER_THREAD);
+        ExecutorService workers = Executors.newFixedThreadPool(
+                                                    Math.max(1, threads));
+        List<Future<Path>> parts = new ArrayList<>();
+        Path directory = file.toAbsolutePath().getParent();
+        long segments = 0;
+
+        try (FileChannel out = FileChannel.open(file,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            for (Partition partition : partitions)
+            {
+                partition.firstIndex = segments;
+                segments = segments + partition.segments();
+                parts.add(workers.submit(() ->
+                                write(partition, format, directory)));
+            }
+
+            if (format == BINARY)
+                writeFully(out, ByteBuffer.wrap(binaryHeader()));
+
+            // Append the partitions in order; each temporary file is
+            // deleted as soon as it is copied
+            for (Future<Path> part : parts)
+            {
+                Path partFile = part.get();
+                try (FileChannel in = FileChannel.open(partFile,
+                                                StandardOpenOption.READ))
+                {
+                    long size = in.size();
+                    for (long done = 0; done < size; )
+                        done = done + in.transferTo(done, size - done, out);
+                }
+                Files.delete(partFile);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Export failed", e.getCause());
+        }
+        finally
+        {
+            workers.shutdownNow();
+            for (Future<Path> part : parts)
+                deleteQuietly(part);
+        }
+        return segments;
+    }
+
+
+    /**
+     * Cuts a tree into partitions in alphabetical order.
+     * @param tree The root node of a radix tree
+     * @param wanted Number of partitions that would keep all threads busy
+     * @return The partitions
+     */
+    static List<Partition> partition(RadixTree.Node tree, int wanted)
+    {
+        List<Partition> partitions = new ArrayList<>();
+        int children = 0;
+
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            if (RadixTree.keysInSubtree(tree.childNode[i]) > 0)
+                children++;
+
+        // The root itself never holds a segment; an empty segment cannot be
+        // inserted
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+        {
+            RadixTree.Node child = tree.childNode[i];
+            if (RadixTree.keysInSubtree(child) == 0)
+                continue;
+
+            if (children >= wanted)
+            {
+                partitions.add(new Partition(child, child.prefixCode, true));
+                continue;
+            }
+
+            // Go one level down. The segment of child itself comes before
+            // all segments of its children.
+            if (child.endOfDNA == true)
+                partitions.add(new Partition(child, child.prefixCode, false));
+            for (int j = 0; j < RadixTree.MAX_CHILDREN; j++)
+            {
+                RadixTree.Node grandchild = child.childNode[j];
+                if (RadixTree.keysInSubtree(grandchild) > 0)
+                    partitions.add(new Partition(grandchild,
+                            child.prefixCode + grandchild.prefixCode, true));
+            }
+        }
+        return partitions;
+    }
+
+
+    /**
+     * Writes the segments of one partition to a temporary file.
+     * @return The temporary file
+     */
+    static Path write(Partition partition, byte format, Path directory)
+                                                        throws IOException
+    {
+        Path partFile = Files.createTempFile(directory, ".radixtree-export",
+                                                                    ".part");
+        try (FileChannel channel = FileChannel.open(partFile,
+                                                StandardOpenOption.WRITE))
+        {
+            PartWriter writer = new PartWriter(channel, format,
+                                                    partition.firstIndex);
+            int length = writer.setPath(partition.path);
+
+            if (partition.subtree)
+                writer.walk(partition.node, length);
+            else
+                writer.record(length, partition.node.countOfDNA);
+            writer.flush();
+        }
+        return partFile;
+    }
+
+
+    static byte[] binaryHeader() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(EXPORT_MAGIC);
+        out.writeByte(EXPORT_VERSION);
+        out.writeUTF(RadixTree.alphabet.symbols);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer)
+                                                        throws IOException
+    {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+
+    static void deleteQuietly(Future<Path> part)
+    {
+        try
+        {
+            if (part.isDone() && !part.isCancelled())
+                Files.deleteIfExists(part.get());
+        }
+        catch (IOException | InterruptedException | ExecutionException e)
+        {
+            // Nothing was written, or the file is already gone
+        }
+    }
+
+
+    // A subtree, or a single segment, written as one unit
+    static class Partition {
+        final RadixTree.Node node;
+        final String path;        // Segment spelled out up to node
+        final boolean subtree;    // false: only the segment of node itself
+        long firstIndex;          // Number of segments before this partition
+
+        Partition(RadixTree.Node node, String path, boolean subtree)
+        {
+            this.node = node;
+            this.path = path;
+            this.subtree = subtree;
+        }
+
+        long segments()
+        {
+            return subtree ? node.keysInSubtree : 1;
+        }
+    }
+
+
+    //
+    // Walks a subtree depth first and writes its segments through a buffer.
+    // The path from the root is kept as letters in one growing array, so
+    // a segment is written without building a String for it.
+    //
+    static class PartWriter {
+
+        final FileChannel channel;
+        final byte format;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES)
+                                            .order(ByteOrder.LITTLE_ENDIAN);
+        byte[] path = new byte[256];
+        long index;               // Number of segments written before
+
+        PartWriter(FileChannel channel, byte format, long firstIndex)
+        {
+            this.channel = channel;
+            this.format = format;
+            this.index = firstIndex;
+        }
+
+
+        int setPath(String segment)
+        {
+            return append(0, segment);
+        }
+
+
+        @SuppressWarnings("deprecation")
+        int append(int length, String label)
+        {
+            int newLength = length + label.length();
+
+            if (newLength > path.length)
+                path = Arrays.copyOf(path,
+                                    Math.max(newLength, 2 * path.length));
+            label.getBytes(0, label.length(), path, length);
+            return newLength;
+        }
+
+
+        void walk(RadixTree.Node node, int length) throws IOException
+        {
+            if (node.endOfDNA == true)
+                record(length, node.countOfDNA);
+
+            for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            {
+                RadixTree.Node child = node.childNode[i];
+                if (RadixTree.keysInSubtree(child) > 0)
+                    walk(child, append(length, child.prefixCode));
+            }
+        }
+
+
+        /**
+         * Writes the segment made of the first length letters of path.
+         */
+        void record(int length, int count) throws IOException
+        {
+            index++;
+            switch (format)
+            {
+                case FASTA:
+                    ensure(40);
+                    buffer.put((byte) '>');
+                    putDecimal(index);
+                    putAscii(" count=");
+                    putDecimal(count);
+                    buffer.put((byte) '\n');
+                    putLetters(length);
+                    ensure(1);
+                    buffer.put((byte) '\n');
+                    break;
+                case TSV:
+                    putLetters(length);
+                    ensure(12);
+                    buffer.put((byte) '\t');
+                    putDecimal(count);
+                    buffer.put((byte) '\n');
+                    break;
+                default:
+                    ensure(5);
+                    DnaCodec.writeVarInt(buffer, length);
+                    putPacked(length);
+                    ensure(5);
+                    DnaCodec.writeVarInt(buffer, count);
+            }
+        }
+
+
+        void putLetters(int length) throws IOException
+        {
+            for (int done = 0; done < length; )
+            {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), length - done);
+                buffer.put(path, done, chunk);
+                done = done + chunk;
+            }
+        }
+
+
+        // Same layout as DnaCodec.pack, straight into the buffer
+        void putPacked(int length) throws IOException
+        {
+            Alphabet alphabet = RadixTree.alphabet;
+            int  bits = alphabet.bitsPerSymbol;
+            long pending = 0;
+            int  pendingBits = 0;
+
+            // Most segments fit in the buffer; check for room once
+            ensure(Math.min(DnaCodec.packedLength(length), BUFFER_BYTES));
+            boolean fits = buffer.remaining() >=
+                                            DnaCodec.packedLength(length);
+
+            for (int i = 0; i < length; i++)
+            {
+                pending |= (long) alphabet.indexOf((char) path[i])
+                                                            << pendingBits;
+                pendingBits += bits;
+                if (pendingBits >= 32)
+                {
+                    if (!fits)
+                        ensure(4);
+                    buffer.putInt((int) pending);
+                    pending >>>= 32;
+                    pendingBits -= 32;
+                }
+            }
+            while (pendingBits >= 8)
+            {
+                ensure(1);
+                buffer.put((byte) pending);
+                pending >>>= 8;
+                pendingBits -= 8;
+            }
+            if (pendingBits > 0)
+            {
+                ensure(1);
+                buffer.put((byte) pending);
+            }
+        }
+
+
+        void putAscii(String text)
+        {
+            for (int i = 0; i < text.length(); i++)
+                buffer.put((byte) text.charAt(i));
+        }
+
+
+        void putDecimal(long value)
+        {
+            int start = buffer.position();
+
+            do
+            {
+                buffer.put((byte) ('0' + value % 10));
+                value = value / 10;
+            }
+            while (value > 0);
+
+            // The digits went in backwards
+            for (int i = start, j = buffer.position() - 1; i < j; i++, j--)
+            {
+                byte digit = buffer.get(i);
+                buffer.put(i, buffer.get(j));
+                buffer.put(j, digit);
+            }
+        }
+
+
+        void ensure(int bytes) throws IOException
+        {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+
+        void flush() throws IOException
+        {
+            buffer.flip();
+            writeFully(channel, buffer);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+
+
+//
+// Measures RadixTreeExport on a tree of random segments, for every format
+// and for 1 thread and a thread per processor. As a baseline, the same TSV
+// file is written one segment at a time from RadixTree.range through a
+// BufferedWriter, the way printAlphabeticalStrings walks the tree.
+//
+// Usage: RadixTreeExportBenchmark [segments] [directory]
+//
+public class RadixTreeExportBenchmark {
+
+    public static void main(String[] args) throws IOException
+    {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Path directory = args.length > 1 ? Path.of(args[1])
+                                : Path.of(System.getProperty("java.io.tmpdir"));
+        int processors = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = processors > 1 ? new int[] { 1, processors }
+                                            : new int[] { 1 };
+        byte[] formats = { RadixTreeExport.TSV, RadixTreeExport.FASTA,
+                                                    RadixTreeExport.BINARY };
+
+        RadixTree.Node tree = new RadixTree.Node();
+        tree.prefixCode = "";
+        Random random = new Random(42);
+        for (int i = 0; i < segments; i++)
+            RadixTree.insertDNA(RadixTree.generateRandomDNA(random), tree);
+
+        Path file = Files.createTempFile(directory, "radixtree-export", "");
+        try
+        {
+            System.out.println("format,threads,segments,megabytes,ms,MBPerSec");
+            for (int round = 0; round < 2; round++)  // The first warms up
+            {
+                boolean print = round == 1;
+                baseline(tree, file, print);
+                for (byte format : formats)
+                    for (int threads : threadCounts)
+                        run(tree, file, format, threads, print);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    static void run(RadixTree.Node tree, Path file, byte format, int threads,
+                                        boolean print) throws IOException
+    {
+        String[] names = { null, "FASTA", "TSV", "BINARY" };
+        long start = System.nanoTime();
+        long segments = RadixTreeExport.export(tree, file, format, threads);
+        long elapsed = System.nanoTime() - start;
+
+        if (print)
+            report(names[format], threads, segments, Files.size(file),
+                                                                    elapsed);
+    }
+
+
+    static void baseline(RadixTree.Node tree, Path file, boolean print)
+                                                        throws IOException
+    {
+        long start = System.nanoTime();
+        long segments = 0;
+
+        try (BufferedWriter out = Files.newBufferedWriter(file))
+        {
+            Iterator<String> keys = RadixTree.range(null, null, tree);
+            while (keys.hasNext())
+            {
+                String key = keys.next();
+                out.write(key);
+                out.write('\t');
+                out.write(Integer.toString(RadixTree.countOf(key, tree)));
+                out.write('\n');
+                segments++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (print)
+            report("TSV-range", 1, segments, Files.size(file), elapsed);
+    }
+
+
+    static void report(String format, int threads, long segments, long bytes,
+                                                                long nanos)
+    {
+        System.out.printf("%s,%d,%d,%.1f,%.0f,%.1f%n", format, threads,
+                    segments, bytes / 1e6, nanos / 1e6,
+                    bytes / 1e6 / (nanos / 1e9));
+    }
+}
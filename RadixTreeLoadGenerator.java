@@ -0,0 +1,154 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+
+//
+// Load generator for RadixTreeServer. It loads the server with random
+// segments and then runs a mix of 80% FIND (half of them hits), 5% COUNT,
+// 5% PREFIX, 5% INSERT and 5% DELETE from several connections at once.
+// Every connection keeps a window of pipelined requests in flight. The
+// latency of a request is measured from the flush that sent it to the
+// arrival of its reply.
+//
+// Without an address, a server is started in this JVM on a free TCP port.
+//
+// Usage: RadixTreeLoadGenerator [address] [segments] [seconds]
+//
+public class RadixTreeLoadGenerator {
+
+    public static void main(String[] args) throws Exception
+    {
+        String address = args.length > 0 && !args[0].equals("-")
+                                                        ? args[0] : null;
+        int segments = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        RadixTreeServer server = null;
+        if (address == null)
+        {
+            RadixTree.Node tree = new RadixTree.Node();
+            tree.prefixCode = "";
+            server = new RadixTreeServer(tree, null);
+            server.start("tcp:0");
+            address = server.address();
+        }
+
+        // Load the tree, pipelining the inserts
+        String[] stored = new String[segments];
+        Random random = new Random(42);
+        try (RadixTreeClient client = RadixTreeClient.connect(address))
+        {
+            for (int i = 0; i < segments; i++)
+            {
+                stored[i] = RadixTree.generateRandomDNA(random);
+                client.send(RadixTreeServer.INSERT, stored[i], 0);
+                if (i % 1024 == 1023)
+                    drain(client);
+            }
+            drain(client);
+        }
+
+        int[] connectionCounts = { 1, 4, 16 };
+        int[] windows = { 1, 16, 64 };
+
+        System.out.println("connections,window,requestsPerSec," +
+                                    "p50Micros,p99Micros,p999Micros");
+        for (int connections : connectionCounts)
+            for (int window : windows)
+                run(address, stored, connections, window, seconds);
+
+        if (server != null)
+            server.close();
+    }
+
+
+    static void drain(RadixTreeClient client) throws IOException
+    {
+        while (!client.awaiting.isEmpty())
+            client.receive();
+    }
+
+
+    static void run(String address, String[] stored, int connections,
+                    int window, int seconds) throws InterruptedException
+    {
+        RadixTreeMetrics.Histogram latency = new RadixTreeMetrics.Histogram();
+        LongAdder requests = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1000000000L;
+        Thread[] threads = new Thread[connections];
+
+        for (int c = 0; c < connections; c++)
+        {
+            long seed = c;
+            threads[c] = new Thread(() ->
+            {
+                try (RadixTreeClient client = RadixTreeClient.connect(address))
+                {
+                    Random random = new Random(seed);
+
+                    while (System.nanoTime() < deadline)
+                    {
+                        for (int i = 0; i < window; i++)
+                            sendRandom(client, random, stored);
+
+                        long sent = System.nanoTime();
+                        client.flush();
+                        for (int i = 0; i < window; i++)
+                        {
+                            client.receive();
+                            latency.record(System.nanoTime() - sent);
+                        }
+                        requests.add(window);
+                    }
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Connection failed: " + e.getMessage());
+                }
+            });
+            threads[c].start();
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads)
+            thread.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        RadixTreeMetrics.HistogramSnapshot snapshot = latency.snapshot();
+        System.out.printf("%d,%d,%.0f,%.1f,%.1f,%.1f%n", connections, window,
+                    requests.sum() / elapsed,
+                    snapshot.percentile(50) / 1e3,
+                    snapshot.percentile(99) / 1e3,
+                    snapshot.percentile(99.9) / 1e3);
+    }
+
+
+    static void sendRandom(RadixTreeClient client, Random random,
+                                        String[] stored) throws IOException
+    {
+        String stored1 = stored[random.nextInt(stored.length)];
+        int choice = random.nextInt(100);
+
+        if (choice < 40)
+            client.send(RadixTreeServer.FIND, stored1, 0);
+        else if (choice < 80)
+            client.send(RadixTreeServer.FIND,
+                            RadixTree.generateRandomDNA(random), 0);
+        else if (choice < 85)
+            client.send(RadixTreeServer.COUNT, stored1, 0);
+        else if (choice < 90)
+            client.send(RadixTreeServer.PREFIX, stored1.substring(0, 6), 10);
+        else if (choice < 95)
+            client.send(RadixTreeServer.INSERT, stored1, 0);
+        else
+            client.send(RadixTreeServer.DELETE, stored1, 0);
+    }
+}
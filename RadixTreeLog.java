@@ -0,0 +1,816 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+//
+// Durability layer for a radix tree. Every insertDNA and deleteDNA is first
+// appended to a write-ahead log and then applied to the tree. Log records
+// are collected in memory and written with a single fsync per batch (group
+// commit), either when the batch is full, when the background syncer wakes
+// up, or when a caller asks for the records to be durable with sync().
+//
+// Every checkpointInterval records a full binary image of the tree is
+// written to the checkpoint file and a new log generation is started. On
+// restart, open() loads the latest checkpoint and replays the log
+// generations written after it.
+//
+// Files in the log directory:
+//   checkpoint.bin  The latest checkpoint. It records the first log
+//                   generation that is not contained in the checkpoint.
+//   wal.<gen>       Log generation gen. A record is
+//                   [op][length in bases][packed bases][crc32]
+//                   Every generation starts with an ALPHABET record holding
+//                   the letters of the alphabet instead of packed bases.
+//
+// Segments are packed with the alphabet of the tree, so a log directory
+// can only be opened with the alphabet it was written with.
+//
+public class RadixTreeLog implements Closeable {
+
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+    static final byte ALPHABET = 3;
+
+    static final String CHECKPOINT_FILE = "checkpoint.bin";
+    static final String LOG_FILE_PREFIX = "wal.";
+    static final int CHECKPOINT_MAGIC = 0x52445843;   // "RDXC"
+    static final int CHECKPOINT_VERSION = 2;
+
+    static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+    static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+    static final long DEFAULT_CHECKPOINT_INTERVAL = 1000000;
+
+    final Path directory;
+    final RadixTree.Node tree;
+    final int batchBytes;             // Size at which a batch is synced
+    final long checkpointInterval;    // Records between checkpoints, 0=never
+
+    // Log being appended to. Records go into pending; the thread that wins
+    // the sync swaps pending with spare and writes it out, so appends can
+    // continue while the fsync is in progress.
+    FileChannel logChannel;
+    long generation;
+    ByteBuffer pending;
+    ByteBuffer spare;
+    boolean syncing;
+    long appendedRecords;             // Sequence number of the last record
+    long durableRecords;              // Last sequence number on disk
+    long recordsSinceCheckpoint;
+    IOException syncFailure;          // Failure seen by the background syncer
+
+    Thread syncer;
+    volatile boolean closed;
+
+    // Statistics, used by RadixTreeLogBenchmark
+    long logBytesWritten;
+    long checkpointBytesWritten;
+    long syncCount;
+    long replayedRecords;
+    long recoveryNanos;
+
+
+    RadixTreeLog(Path directory, RadixTree.Node tree, int batchBytes,
+                                long syncIntervalMillis, long checkpointInterval)
+    {
+        this.directory = directory;
+        this.tree = tree;
+        this.batchBytes = batchBytes;
+        this.checkpointInterval = checkpointInterval;
+        this.pending = ByteBuffer.allocate(2 * batchBytes);
+        this.spare = ByteBuffer.allocate(2 * batchBytes);
+
+        if (syncIntervalMillis > 0)
+        {
+            syncer = new Thread(() -> syncPeriodically(syncIntervalMillis),
+                                                        "radixtree-log-sync");
+            syncer.setDaemon(true);
+        }
+    }
+
+
+    /**
+     * Opens the log in directory with the default batch size, sync interval
+     * and checkpoint interval, recovering the tree stored there.
+     * @param directory Directory holding the checkpoint and the log files.
+     *                  It is created if it does not exist.
+     * @return The log. Its tree holds every operation that was logged
+     *         before the last sync.
+     * @throws IOException If the directory cannot be read or written
+     */
+    public static RadixTreeLog open(Path directory) throws IOException
+    {
+        return open(directory, DEFAULT_BATCH_BYTES,
+                    DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+
+    /**
+     * Opens the log in directory, recovering the tree stored there. The
+     * latest checkpoint is loaded and the log generations written after it
+     * are replayed. A torn record at the end of a log is cut off.
+     * @param directory Directory holding the checkpoint and the log files
+     * @param batchBytes Number of buffered bytes after which the appending
+     *                   thread writes and syncs the batch itself
+     * @param syncIntervalMillis How often the background syncer makes the
+     *                   buffered records durable; 0 disables the syncer, so
+     *                   records only become durable when a batch fills up or
+     *                   sync() is called
+     * @param checkpointInterval Number of records after which a checkpoint
+     *                   is taken; 0 disables automatic checkpoints
+     * @return The log with its recovered tree
+     * @throws IOException If the directory cannot be read or written, or
+     *                     the checkpoint is corrupt
+     */
+    public static RadixTreeLog open(Path directory, int batchBytes,
+                long syncIntervalMillis, long checkpointInterval)
+                                                        throws IOException
+    {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+
+        RadixTree.Node tree;
+        long firstGeneration = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+
+        if (Files.exists(checkpoint))
+        {
+            Checkpoint image = readCheckpoint(checkpoint);
+            firstGeneration = image.firstGeneration;
+            tree = image.tree;
+        }
+        else
+        {
+            tree = new RadixTree.Node();
+            tree.prefixCode = "";
+        }
+
+        RadixTreeLog log = new RadixTreeLog(directory, tree, batchBytes,
+                                    syncIntervalMillis, checkpointInterval);
+
+        // Replay the log generations that are not part of the checkpoint.
+        // Only the last one can end in a torn record.
+        List<Long> generations = new ArrayList<Long>();
+        for (long generation : logGenerations(directory))
+            if (generation >= firstGeneration)
+                generations.add(generation);
+        for (int i = 0; i < generations.size(); i++)
+            log.replay(logFile(directory, generations.get(i)),
+                                            i == generations.size() - 1);
+
+        // New records are appended to the last generation, which replay
+        // has cut back to its last valid record, so that opening a log
+        // without writing to it leaves no empty generation behind
+        if (generations.isEmpty())
+            log.startGeneration(firstGeneration);
+        else
+            log.startGeneration(generations.get(generations.size() - 1));
+        log.recoveryNanos = System.nanoTime() - start;
+
+        if (log.syncer != null)
+            log.syncer.start();
+        return log;
+    }
+
+
+    /**
+     * Returns the tree maintained by this log.
+     * @return The root node of the radix tree
+     */
+    public RadixTree.Node tree()
+    {
+        return tree;
+    }
+
+
+    /**
+     * Logs and inserts a DNA segment. The record becomes durable with the
+     * next batch; call sync() to wait for it. Invalid segments are not
+     * logged.
+     * @param nucleotide A string denoting a DNA segment
+     * @return true if the segment was inserted; false if it is empty or has
+     *         letters outside the alphabet
+     * @throws IOException If the log cannot be written
+     */
+    public boolean insertDNA(String nucleotide) throws IOException
+    {
+        if (RadixTree.invalidBaseFound(nucleotide))
+            return false;
+
+        append(INSERT, nucleotide);
+        RadixTree.insertDNA(nucleotide, tree);
+        checkpointIfDue();
+        return true;
+    }
+
+
+    /**
+     * Logs and deletes a DNA segment. Segments which are not in the tree
+     * are not logged.
+     * @param nucleotide A DNA segment to be deleted
+     * @return true if the segment was found and deleted; else false
+     * @throws IOException If the log cannot be written
+     */
+    public boolean deleteDNA(String nucleotide) throws IOException
+    {
+        if (!RadixTree.findDNA(nucleotide, tree))
+            return false;
+
+        append(DELETE, nucleotide);
+        boolean deleted = RadixTree.deleteDNA(nucleotide, tree);
+        checkpointIfDue();
+        return deleted;
+    }
+
+
+    /**
+     * Appends a record to the current batch. If the batch is full, the
+     * calling thread writes and syncs it.
+     */
+    void append(byte op, String nucleotide) throws IOException
+    {
+        byte[] packed = DnaCodec.pack(nucleotide);
+        long sequence;
+        boolean batchFull;
+
+        synchronized (this)
+        {
+            if (closed)
+                throw new IOException("Log is closed");
+            if (syncFailure != null)
+                throw syncFailure;
+
+            int recordLen = 1 + 5 + packed.length + 4;
+            if (pending.remaining() < recordLen)
+                pending = grow(pending, recordLen);
+
+            int start = pending.position();
+            pending.put(op);
+            DnaCodec.writeVarInt(pending, nucleotide.length());
+            pending.put(packed);
+
+            CRC32 crc = new CRC32();
+            crc.update(pending.array(), start, pending.position() - start);
+            pending.putInt((int) crc.getValue());
+
+            sequence = ++appendedRecords;
+            recordsSinceCheckpoint++;
+            batchFull = pending.position() >= batchBytes;
+        }
+
+        if (batchFull)
+            sync(sequence);
+    }
+
+
+    static ByteBuffer grow(ByteBuffer buffer, int needed)
+    {
+        int capacity = Math.max(2 * buffer.capacity(),
+                                            buffer.position() + needed);
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+
+    /**
+     * Waits until every record appended so far is on disk.
+     * @throws IOException If the log cannot be written
+     */
+    public void sync() throws IOException
+    {
+        long sequence;
+
+        synchronized (this)
+        {
+            sequence = appendedRecords;
+        }
+        sync(sequence);
+    }
+
+
+    /**
+     * Waits until the record with the given sequence number is on disk. If
+     * no sync is in progress, the calling thread becomes the leader and
+     * writes every pending record with a single fsync; otherwise it waits
+     * for the running sync and checks again.
+     */
+    void sync(long sequence) throws IOException
+    {
+        ByteBuffer batch;
+        long batchEnd;
+
+        synchronized (this)
+        {
+            while (durableRecords < sequence && syncing)
+                waitForSync();
+
+            if (durableRecords >= sequence)
+                return;
+            if (syncFailure != null)
+                throw syncFailure;
+
+            // Become the leader for this batch
+            syncing = true;
+            batch = pending;
+            pending = spare;
+            spare = null;
+            batchEnd = appendedRecords;
+        }
+
+        IOException failure = null;
+        try
+        {
+            batch.flip();
+            long written = batch.remaining();
+            while (batch.hasRemaining())
+                logChannel.write(batch);
+            logChannel.force(false);
+
+            logBytesWritten += written;
+            syncCount++;
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                batch.clear();
+                spare = batch;
+                syncing = false;
+                if (failure == null)
+                    durableRecords = batchEnd;
+                else
+                    syncFailure = failure;
+                notifyAll();
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+
+    void waitForSync() throws IOException
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for log sync", e);
+        }
+    }
+
+
+    void syncPeriodically(long syncIntervalMillis)
+    {
+        while (!closed)
+        {
+            try
+            {
+                Thread.sleep(syncIntervalMillis);
+                sync();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (IOException e)
+            {
+                // Recorded in syncFailure and reported to the next append
+            }
+        }
+    }
+
+
+    void checkpointIfDue() throws IOException
+    {
+        if (checkpointInterval > 0 &&
+                                recordsSinceCheckpoint >= checkpointInterval)
+            checkpoint();
+    }
+
+
+    /**
+     * Writes a full checkpoint of the tree and starts a new log generation.
+     * The checkpoint is written to a temporary file and renamed over the
+     * previous one, so a crash at any point leaves either the old or the
+     * new checkpoint together with the log generations needed after it.
+     * Log generations contained in the new checkpoint are deleted. The
+     * tree must not be modified while the checkpoint is taken.
+     * @throws IOException If the checkpoint cannot be written
+     */
+    public void checkpoint() throws IOException
+    {
+        // Every record of the current generation is durable before the
+        // generation is closed
+        sync();
+
+        long nextGeneration;
+        synchronized (this)
+        {
+            while (syncing)
+                waitForSync();
+            logChannel.close();
+            nextGeneration = generation + 1;
+            startGeneration(nextGeneration);
+            recordsSinceCheckpoint = 0;
+        }
+
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeCheckpoint(Channels.newOutputStream(channel), nextGeneration);
+            channel.force(true);
+            checkpointBytesWritten += channel.size();
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE),
+                                    StandardCopyOption.ATOMIC_MOVE,
+                                    StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        for (long generation : logGenerations(directory))
+            if (generation < nextGeneration)
+                Files.deleteIfExists(logFile(directory, generation));
+    }
+
+
+    /**
+     * Makes the buffered records durable and closes the log. The tree stays
+     * usable, but further operations are no longer logged.
+     * @throws IOException If the log cannot be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+
+        try
+        {
+            sync();
+        }
+        finally
+        {
+            closed = true;
+            if (syncer != null)
+                syncer.interrupt();
+            synchronized (this)
+            {
+                logChannel.close();
+            }
+        }
+    }
+
+
+    void startGeneration(long generation) throws IOException
+    {
+        this.generation = generation;
+        logChannel = FileChannel.open(logFile(directory, generation),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+
+        // Record the alphabet; it becomes durable with the first batch
+        if (logChannel.size() == 0)
+        {
+            String symbols = RadixTree.alphabet.symbols;
+            ByteBuffer header = ByteBuffer.allocate(1 + 5 + symbols.length()
+                                                                        + 4);
+            header.put(ALPHABET);
+            DnaCodec.writeVarInt(header, symbols.length());
+            header.put(symbols.getBytes(StandardCharsets.US_ASCII));
+
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, header.position());
+            header.putInt((int) crc.getValue());
+
+            header.flip();
+            while (header.hasRemaining())
+                logBytesWritten += logChannel.write(header);
+        }
+        syncDirectory();
+    }
+
+
+    // The rename of a checkpoint and a newly created log file are only
+    // durable once the directory itself has been synced
+    void syncDirectory()
+    {
+        try (FileChannel dir = FileChannel.open(directory,
+                                                StandardOpenOption.READ))
+        {
+            dir.force(true);
+        }
+        catch (IOException e)
+        {
+            // Not supported on every platform; the file contents are synced
+        }
+    }
+
+
+    static Path logFile(Path directory, long generation)
+    {
+        return directory.resolve(LOG_FILE_PREFIX + generation);
+    }
+
+
+    static List<Long> logGenerations(Path directory) throws IOException
+    {
+        List<Long> generations = new ArrayList<Long>();
+
+        try (DirectoryStream<Path> files =
+                    Files.newDirectoryStream(directory, LOG_FILE_PREFIX + "*"))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                try
+                {
+                    generations.add(Long.parseLong(
+                                name.substring(LOG_FILE_PREFIX.length())));
+                }
+                catch (NumberFormatException e)
+                {
+                    // Not a log file
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+
+    /**
+     * Applies the records of one log file to the tree. Replay stops at the
+     * first incomplete or corrupt record. In the last generation this can
+     * only be the tail of a batch that was being written when the process
+     * stopped, so the file is truncated there and the damaged tail is
+     * never replayed again. In any earlier generation it is an error,
+     * since later generations were written on top of it.
+     * A log written with another alphabet is rejected.
+     * @param file The log file
+     * @param last true for the last generation
+     */
+    void replay(Path file, boolean last) throws IOException
+    {
+        long fileLength = Files.size(file);
+        long validLength = 0;
+
+        try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file),
+                                                                1 << 16)))
+        {
+            CRC32 crc = new CRC32();
+
+            while (true)
+            {
+                int op = in.read();
+                if (op == -1)
+                    break;
+
+                String nucleotide;
+                try
+                {
+                    crc.reset();
+                    crc.update(op);
+                    int dnaLen = DnaCodec.readVarInt(in);
+                    if (dnaLen < 0)
+                        break;
+                    byte[] lenBytes = varIntBytes(dnaLen);
+                    crc.update(lenBytes, 0, lenBytes.length);
+
+                    // A corrupt length must not make us allocate more
+                    // than the rest of the file
+                    long packedLen = op == ALPHABET ? dnaLen
+                                    : DnaCodec.packedLength(dnaLen);
+                    if (packedLen > fileLength - validLength - 1
+                                                - lenBytes.length - 4)
+                        break;
+                    byte[] packed = new byte[(int) packedLen];
+                    in.readFully(packed);
+                    crc.update(packed, 0, packed.length);
+
+                    if (in.readInt() != (int) crc.getValue() ||
+                            (op != INSERT && op != DELETE && op != ALPHABET))
+                        break;
+
+                    if (op == ALPHABET)
+                        nucleotide = new String(packed,
+                                                StandardCharsets.US_ASCII);
+                    else
+                        nucleotide = DnaCodec.unpack(packed, 0, dnaLen);
+                    validLength = validLength + 1 + lenBytes.length
+                                                        + packed.length + 4;
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+                catch (StreamCorruptedException e)
+                {
+                    // Malformed length
+                    break;
+                }
+
+                if (op == ALPHABET)
+                {
+                    if (!nucleotide.equals(RadixTree.alphabet.symbols))
+                        throw new IOException(file + " was written with " +
+                                    "alphabet " + nucleotide + ", not " +
+                                    RadixTree.alphabet.symbols);
+                    continue;
+                }
+                else if (op == INSERT)
+                    RadixTree.insertDNA(nucleotide, tree);
+                else
+                    RadixTree.deleteDNA(nucleotide, tree);
+                replayedRecords++;
+                recordsSinceCheckpoint++;
+            }
+        }
+
+        if (validLength < fileLength && !last)
+            throw new IOException("Corrupt record in " + file + " at byte "
+                                        + validLength + "; later log " +
+                                        "generations depend on it");
+        if (validLength < fileLength)
+            try (FileChannel channel = FileChannel.open(file,
+                                                StandardOpenOption.WRITE))
+            {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+    }
+
+
+    static byte[] varIntBytes(int value)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+
+        DnaCodec.writeVarInt(buffer, value);
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+
+    /**
+     * Writes the checkpoint image of the tree: a header with the letters of
+     * the alphabet, the nodes in pre order and a CRC32 over everything
+     * before it. A node is written as [flags][countOfDNA][length of prefix
+     * code][packed prefix code], where flags holds one bit per child plus
+     * the end of word bit. Children without any DNA segment left in their
+     * subtree are not written.
+     */
+    void writeCheckpoint(OutputStream stream, long firstGeneration)
+                                                        throws IOException
+    {
+        BufferedOutputStream raw = new BufferedOutputStream(stream, 1 << 16);
+        CheckedOutputStream checked =
+                                new CheckedOutputStream(raw, new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeByte(CHECKPOINT_VERSION);
+        out.writeUTF(RadixTree.alphabet.symbols);
+        out.writeLong(firstGeneration);
+        writeNode(out, tree);
+        out.flush();
+
+        new DataOutputStream(raw).writeInt(
+                                    (int) checked.getChecksum().getValue());
+        raw.flush();
+    }
+
+
+    static void writeNode(DataOutputStream out, RadixTree.Node node)
+                                                        throws IOException
+    {
+        int flags = node.endOfDNA ? 1 << RadixTree.MAX_CHILDREN : 0;
+
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            if (RadixTree.keysInSubtree(node.childNode[i]) > 0)
+                flags |= 1 << i;
+
+        DnaCodec.writeVarInt(out, flags);
+        if (node.endOfDNA)
+            DnaCodec.writeVarInt(out, node.countOfDNA);
+
+        String prefixCode = node.prefixCode == null ? "" : node.prefixCode;
+        DnaCodec.writeVarInt(out, prefixCode.length());
+        out.write(DnaCodec.pack(prefixCode));
+
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            if ((flags & (1 << i)) != 0)
+                writeNode(out, node.childNode[i]);
+    }
+
+
+    /**
+     * Reads a checkpoint written by writeCheckpoint and verifies its CRC32.
+     */
+    static Checkpoint readCheckpoint(Path file) throws IOException
+    {
+        try (InputStream raw = new BufferedInputStream(
+                                    Files.newInputStream(file), 1 << 16))
+        {
+            CheckedInputStream checked =
+                                    new CheckedInputStream(raw, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            Checkpoint image = new Checkpoint();
+
+            if (in.readInt() != CHECKPOINT_MAGIC)
+                throw new IOException("Not a radix tree checkpoint: " + file);
+            int version = in.readByte();
+            if (version < 1 || version > CHECKPOINT_VERSION)
+                throw new IOException("Unsupported checkpoint version: "
+                                                                    + file);
+
+            // Version 1 checkpoints were always written with DNA
+            String symbols = version == 1 ? Alphabet.DNA.symbols
+                                          : in.readUTF();
+            if (!symbols.equals(RadixTree.alphabet.symbols))
+                throw new IOException(file + " was written with alphabet " +
+                            symbols + ", not " + RadixTree.alphabet.symbols);
+            image.firstGeneration = in.readLong();
+            image.tree = readNode(in);
+
+            int expected = (int) checked.getChecksum().getValue();
+            if (new DataInputStream(raw).readInt() != expected)
+                throw new IOException("Corrupt checkpoint: " + file);
+            return image;
+        }
+    }
+
+
+    static RadixTree.Node readNode(DataInputStream in) throws IOException
+    {
+        RadixTree.Node node = new RadixTree.Node();
+        int flags = DnaCodec.readVarInt(in);
+
+        if ((flags & (1 << RadixTree.MAX_CHILDREN)) != 0)
+        {
+            node.endOfDNA = true;
+            node.countOfDNA = DnaCodec.readVarInt(in);
+        }
+
+        int prefixLen = DnaCodec.readVarInt(in);
+        byte[] packed = new byte[DnaCodec.packedLength(prefixLen)];
+        in.readFully(packed);
+        node.prefixCode = DnaCodec.unpack(packed, 0, prefixLen);
+
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            if ((flags & (1 << i)) != 0)
+                node.childNode[i] = readNode(in);
+
+        RadixTree.refreshSubtree(node);
+        return node;
+    }
+
+
+    // Contents of a checkpoint file
+    static class Checkpoint {
+        long firstGeneration;     // First log generation after the image
+        RadixTree.Node tree;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+
+//
+// Measures the cost of the write-ahead log: throughput of logged inserts
+// and deletes, write amplification (bytes written to the log and to
+// checkpoints per byte of DNA applied to the tree) and recovery time.
+//
+// Usage: RadixTreeLogBenchmark [operations] [directory]
+//
+public class RadixTreeLogBenchmark {
+
+    public static void main(String[] args) throws IOException
+    {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Path parent = args.length > 1 ? Path.of(args[1]) : null;
+
+        int[] batchSizes = { 4 * 1024, 64 * 1024, 1024 * 1024 };
+        long[] checkpointIntervals = { 0, operations / 4 };
+
+        System.out.println("batchBytes,checkpointInterval,opsPerSec," +
+                    "logBytes,checkpointBytes,fsyncs,writeAmplification," +
+                    "replayedRecords,recoveryMs");
+
+        for (int batchBytes : batchSizes)
+            for (long checkpointInterval : checkpointIntervals)
+                run(operations, batchBytes, checkpointInterval, parent);
+    }
+
+
+    static void run(int operations, int batchBytes, long checkpointInterval,
+                                            Path parent) throws IOException
+    {
+        Path directory = parent == null
+                    ? Files.createTempDirectory("radixtree-log")
+                    : Files.createTempDirectory(parent, "radixtree-log");
+        Random random = new Random(42);
+        long dnaBytes = 0;
+
+        try
+        {
+            RadixTreeLog log = RadixTreeLog.open(directory, batchBytes, 10,
+                                                        checkpointInterval);
+            long start = System.nanoTime();
+
+            // 90% inserts, 10% deletes of a recently inserted segment
+            String previous = null;
+            for (int i = 0; i < operations; i++)
+            {
+                if (previous != null && random.nextInt(10) == 0)
+                {
+                    log.deleteDNA(previous);
+                    previous = null;
+                }
+                else
+                {
+                    previous = RadixTree.generateRandomDNA(random);
+                    log.insertDNA(previous);
+                    dnaBytes = dnaBytes + previous.length();
+                }
+            }
+            log.sync();
+            long elapsed = System.nanoTime() - start;
+            int uniqueWords = RadixTree.countUniqueStrings(log.tree(), 0);
+            log.close();
+
+            // Recover from what is on disk, as after a crash
+            RadixTreeLog recovered = RadixTreeLog.open(directory, batchBytes,
+                                                    0, checkpointInterval);
+            if (RadixTree.countUniqueStrings(recovered.tree(), 0) != uniqueWords)
+                throw new IllegalStateException("Recovered tree differs");
+            recovered.close();
+
+            double amplification = (double) (log.logBytesWritten +
+                                    log.checkpointBytesWritten) / dnaBytes;
+
+            System.out.printf("%d,%d,%.0f,%d,%d,%d,%.3f,%d,%.1f%n",
+                        batchBytes, checkpointInterval,
+                        operations / (elapsed / 1e9),
+                        log.logBytesWritten, log.checkpointBytesWritten,
+                        log.syncCount, amplification,
+                        recovered.replayedRecords,
+                        recovered.recoveryNanos / 1e6);
+        }
+        finally
+        {
+            try (Stream<Path> files = Files.walk(directory))
+            {
+                files.sorted(Comparator.reverseOrder())
+                     .forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+}
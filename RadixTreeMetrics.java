@@ -0,0 +1,501 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+//
+// Optional instrumentation of insertDNA, findDNA and deleteDNA. It is
+// switched on by starting the JVM with -Dradixtree.metrics=true. ENABLED is
+// a static final field, so when it is false the JIT compiler removes every
+// "if (RadixTreeMetrics.ENABLED)" block from the tree operations and the
+// fast path carries no cost at all.
+//
+// All counters are LongAdders, which spread updates from different threads
+// over separate cells instead of contending on one memory location. The
+// current values are read with snapshot() or over JMX under the name
+// radixtree:type=RadixTreeMetrics.
+//
+public class RadixTreeMetrics implements RadixTreeMetricsMBean {
+
+    static final boolean ENABLED = Boolean.getBoolean("radixtree.metrics");
+
+    static final String OBJECT_NAME = "radixtree:type=RadixTreeMetrics";
+
+    // Deepest level tracked in the depth histogram; deeper descents are
+    // counted in the last bucket
+    static final int MAX_DEPTH = 64;
+
+    static final Histogram insertLatency = new Histogram();
+    static final Histogram findLatency = new Histogram();
+    static final Histogram deleteLatency = new Histogram();
+
+    static final LongAdder findHits = new LongAdder();
+    static final LongAdder findMisses = new LongAdder();
+    static final LongAdder deleteHits = new LongAdder();
+    static final LongAdder deleteMisses = new LongAdder();
+    static final LongAdder splits = new LongAdder();
+    static final LongAdder nodesRemoved = new LongAdder();
+    static final LongAdder basesCompared = new LongAdder();
+    static final LongAdder[] depth = newAdders(MAX_DEPTH + 1);
+
+    static
+    {
+        if (ENABLED)
+            registerMBean();
+    }
+
+
+    static LongAdder[] newAdders(int count)
+    {
+        LongAdder[] adders = new LongAdder[count];
+
+        for (int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+
+    static void registerMBean()
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new RadixTreeMetrics(), new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException e)
+        {
+            System.out.println("Could not register " + OBJECT_NAME + ": " +
+                                                            e.getMessage());
+        }
+    }
+
+
+    /**
+     * Records the number of levels an operation descended below the root.
+     * @param level The level of the last node visited. Root is level 0.
+     */
+    static void recordDepth(int level)
+    {
+        depth[Math.min(level, MAX_DEPTH)].increment();
+    }
+
+
+    /**
+     * Records the outcome and latency of a findDNA call.
+     */
+    static void recordFind(boolean found, long nanos)
+    {
+        (found ? findHits : findMisses).increment();
+        findLatency.record(nanos);
+    }
+
+
+    /**
+     * Records the outcome and latency of a deleteDNA call.
+     */
+    static void recordDelete(boolean deleted, long nanos)
+    {
+        (deleted ? deleteHits : deleteMisses).increment();
+        deleteLatency.record(nanos);
+    }
+
+
+    /**
+     * Returns a copy of all counters. The counters keep running while the
+     * copy is taken, so values recorded at the same time may be missing
+     * from some of its fields.
+     * @return The current values of the counters
+     */
+    public static Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot();
+
+        snapshot.insertLatency = insertLatency.snapshot();
+        snapshot.findLatency = findLatency.snapshot();
+        snapshot.deleteLatency = deleteLatency.snapshot();
+        snapshot.findHits = findHits.sum();
+        snapshot.findMisses = findMisses.sum();
+        snapshot.deleteHits = deleteHits.sum();
+        snapshot.deleteMisses = deleteMisses.sum();
+        snapshot.splits = splits.sum();
+        snapshot.nodesRemoved = nodesRemoved.sum();
+        snapshot.basesCompared = basesCompared.sum();
+        snapshot.depth = new long[depth.length];
+        for (int i = 0; i < depth.length; i++)
+            snapshot.depth[i] = depth[i].sum();
+        return snapshot;
+    }
+
+
+    /**
+     * Sets all counters back to zero.
+     */
+    public static void resetAll()
+    {
+        insertLatency.reset();
+        findLatency.reset();
+        deleteLatency.reset();
+        findHits.reset();
+        findMisses.reset();
+        deleteHits.reset();
+        deleteMisses.reset();
+        splits.reset();
+        nodesRemoved.reset();
+        basesCompared.reset();
+        for (LongAdder adder : depth)
+            adder.reset();
+    }
+
+
+    // RadixTreeMetricsMBean. Each attribute takes its own snapshot, so JMX
+    // clients always see up to date values.
+
+    @Override
+    public long getInserts()
+    {
+        return insertLatency.count();
+    }
+
+    @Override
+    public long getFinds()
+    {
+        return findHits.sum() + findMisses.sum();
+    }
+
+    @Override
+    public long getDeletes()
+    {
+        return deleteHits.sum() + deleteMisses.sum();
+    }
+
+    @Override
+    public double getFindHitRatio()
+    {
+        return snapshot().findHitRatio();
+    }
+
+    @Override
+    public double getDeleteHitRatio()
+    {
+        return snapshot().deleteHitRatio();
+    }
+
+    @Override
+    public long getSplits()
+    {
+        return splits.sum();
+    }
+
+    @Override
+    public long getNodesRemoved()
+    {
+        return nodesRemoved.sum();
+    }
+
+    @Override
+    public long getBasesCompared()
+    {
+        return basesCompared.sum();
+    }
+
+    @Override
+    public double getMeanDepth()
+    {
+        return snapshot().meanDepth();
+    }
+
+    @Override
+    public long getInsertP50Nanos()
+    {
+        return insertLatency.snapshot().percentile(50);
+    }
+
+    @Override
+    public long getInsertP99Nanos()
+    {
+        return insertLatency.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getFindP50Nanos()
+    {
+        return findLatency.snapshot().percentile(50);
+    }
+
+    @Override
+    public long getFindP99Nanos()
+    {
+        return findLatency.snapshot().percentile(99);
+    }
+
+    @Override
+    public long getDeleteP50Nanos()
+    {
+        return deleteLatency.snapshot().percentile(50);
+    }
+
+    @Override
+    public long getDeleteP99Nanos()
+    {
+        return deleteLatency.snapshot().percentile(99);
+    }
+
+    @Override
+    public void reset()
+    {
+        resetAll();
+    }
+
+
+    //
+    // Latency histogram in the style of HdrHistogram. Values below 16 have
+    // a bucket each; above that, every power of two is split into 16 equal
+    // sub buckets, which keeps the relative error of a recorded value below
+    // 1/16 at any magnitude with a fixed number of buckets.
+    //
+    static class Histogram {
+
+        static final int SUB_BUCKET_BITS = 4;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        static final int MAX_EXPONENT = 40;   // About 18 minutes in nanos
+        static final int BUCKETS =
+                    (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        final LongAdder[] buckets = newAdders(BUCKETS);
+        final LongAdder total = new LongAdder();
+        final LongAdder count = new LongAdder();
+
+        static int bucketIndex(long value)
+        {
+            if (value < SUB_BUCKETS)
+                return (int) Math.max(value, 0);
+
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(value),
+                                                            MAX_EXPONENT);
+            int sub = (int) (Math.min(value, (2L << MAX_EXPONENT) - 1)
+                        >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // Smallest value that falls into bucket index
+        static long bucketValue(int index)
+        {
+            if (index < SUB_BUCKETS)
+                return index;
+
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        }
+
+        void record(long value)
+        {
+            buckets[bucketIndex(value)].increment();
+            total.add(value);
+            count.increment();
+        }
+
+        long count()
+        {
+            return count.sum();
+        }
+
+        void reset()
+        {
+            for (LongAdder bucket : buckets)
+                bucket.reset();
+            total.reset();
+            count.reset();
+        }
+
+        HistogramSnapshot snapshot()
+        {
+            HistogramSnapshot snapshot = new HistogramSnapshot();
+
+            snapshot.counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                snapshot.counts[i] = buckets[i].sum();
+                snapshot.count += snapshot.counts[i];
+            }
+            snapshot.total = total.sum();
+            return snapshot;
+        }
+    }
+
+
+    //
+    // Copy of a latency histogram
+    //
+    public static class HistogramSnapshot {
+
+        long[] counts;
+        long count;
+        long total;
+
+        public long count()
+        {
+            return count;
+        }
+
+        public double mean()
+        {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the
+         * recorded values fall, rounded down to its bucket.
+         * @param percent A percentage between 0 and 100
+         * @return The percentile, or 0 if nothing has been recorded
+         */
+        public long percentile(double percent)
+        {
+            long rank = (long) Math.ceil(percent / 100 * count);
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if (seen >= Math.max(rank, 1))
+                    return Histogram.bucketValue(i);
+            }
+            return 0;
+        }
+
+        public long max()
+        {
+            for (int i = counts.length - 1; i >= 0; i--)
+                if (counts[i] > 0)
+                    return Histogram.bucketValue(i);
+            return 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("count=%d mean=%.0fns p50=%dns p99=%dns " +
+                        "p99.9=%dns max=%dns", count, mean(), percentile(50),
+                        percentile(99), percentile(99.9), max());
+        }
+    }
+
+
+    //
+    // Copy of all counters, returned by snapshot()
+    //
+    public static class Snapshot {
+
+        HistogramSnapshot insertLatency;
+        HistogramSnapshot findLatency;
+        HistogramSnapshot deleteLatency;
+        long findHits;
+        long findMisses;
+        long deleteHits;
+        long deleteMisses;
+        long splits;
+        long nodesRemoved;
+        long basesCompared;
+        long[] depth;            // depth[i] = operations that reached level i
+
+        public HistogramSnapshot insertLatency()
+        {
+            return insertLatency;
+        }
+
+        public HistogramSnapshot findLatency()
+        {
+            return findLatency;
+        }
+
+        public HistogramSnapshot deleteLatency()
+        {
+            return deleteLatency;
+        }
+
+        public long findHits()
+        {
+            return findHits;
+        }
+
+        public long findMisses()
+        {
+            return findMisses;
+        }
+
+        public long deleteHits()
+        {
+            return deleteHits;
+        }
+
+        public long deleteMisses()
+        {
+            return deleteMisses;
+        }
+
+        public long splits()
+        {
+            return splits;
+        }
+
+        public long nodesRemoved()
+        {
+            return nodesRemoved;
+        }
+
+        public long basesCompared()
+        {
+            return basesCompared;
+        }
+
+        public long[] depthHistogram()
+        {
+            return depth.clone();
+        }
+
+        public double findHitRatio()
+        {
+            long finds = findHits + findMisses;
+            return finds == 0 ? 0 : (double) findHits / finds;
+        }
+
+        public double deleteHitRatio()
+        {
+            long deletes = deleteHits + deleteMisses;
+            return deletes == 0 ? 0 : (double) deleteHits / deletes;
+        }
+
+        public double meanDepth()
+        {
+            long operations = 0;
+            long levels = 0;
+
+            for (int i = 0; i < depth.length; i++)
+            {
+                operations += depth[i];
+                levels += i * depth[i];
+            }
+            return operations == 0 ? 0 : (double) levels / operations;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "insert: " + insertLatency + "\n" +
+                   "find:   " + findLatency + "\n" +
+                   "delete: " + deleteLatency + "\n" +
+                   String.format("find hit ratio=%.3f delete hit ratio=%.3f " +
+                        "mean depth=%.2f splits=%d nodes removed=%d " +
+                        "bases compared=%d", findHitRatio(), deleteHitRatio(),
+                        meanDepth(), splits, nodesRemoved, basesCompared);
+        }
+    }
+}
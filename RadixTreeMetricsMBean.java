@@ -0,0 +1,45 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+
+//
+// JMX view of RadixTreeMetrics. Latencies are in nanoseconds.
+//
+public interface RadixTreeMetricsMBean {
+
+    long getInserts();
+
+    long getFinds();
+
+    long getDeletes();
+
+    double getFindHitRatio();
+
+    double getDeleteHitRatio();
+
+    long getSplits();
+
+    long getNodesRemoved();
+
+    long getBasesCompared();
+
+    double getMeanDepth();
+
+    long getInsertP50Nanos();
+
+    long getInsertP99Nanos();
+
+    long getFindP50Nanos();
+
+    long getFindP99Nanos();
+
+    long getDeleteP50Nanos();
+
+    long getDeleteP99Nanos();
+
+    void reset();
+}
@@ -0,0 +1,145 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+
+//
+// Checks the counts kept by a radix tree against a TreeMap from segment to
+// number of copies. Random inserts, deletes and setCount calls on short
+// segments, so that nodes are split and merged often, are applied to both,
+// and after every operation the tree must agree with the map on the result
+// of the operation, on countOf of the segment, and on the number of unique
+// segments. Every segment of the map is compared at the end.
+//
+// The first operations are the ones that once went wrong: a node split
+// without a segment ending at it must have a count of 0, so that a later
+// insert of its path counts 1, and deleting one of two copies must leave
+// the other.
+//
+// Prints the first operation on which the tree and the map disagree and
+// exits with status 1, or prints OK.
+//
+// Usage: RadixTreeModelCheck [operations] [seed]
+//
+public class RadixTreeModelCheck {
+
+    static RadixTree.Node tree;
+    static TreeMap<String, Integer> model;
+
+    public static void main(String[] args)
+    {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        String symbols = RadixTree.alphabet.symbols;
+        Random random = new Random(seed);
+
+        tree = new RadixTree.Node();
+        tree.prefixCode = "";
+        model = new TreeMap<>();
+
+        // AAAGC then AAACC splits AAAGC at AAA, which is not a segment
+        String a = repeat(symbols.charAt(0), 3);
+        String b = String.valueOf(symbols.charAt(symbols.length() - 1));
+        insert(a + b + b);
+        insert(a + a.charAt(0) + b);
+        insert(a);
+        insert(a);
+        delete(a);
+        delete(a + b + b);
+
+        for (int i = 0; i < operations; i++)
+        {
+            StringBuilder segment = new StringBuilder();
+            int length = 1 + random.nextInt(6);
+
+            for (int j = 0; j < length; j++)
+                segment.append(symbols.charAt(random.nextInt(symbols.length())));
+
+            int op = random.nextInt(10);
+            if (op < 5)
+                insert(segment.toString());
+            else if (op < 9)
+                delete(segment.toString());
+            else
+                setCount(segment.toString(), random.nextInt(4));
+        }
+
+        for (Map.Entry<String, Integer> entry : model.entrySet())
+            check(RadixTree.countOf(entry.getKey(), tree) == entry.getValue(),
+                                                    "countOf", entry.getKey());
+        System.out.println("OK");
+    }
+
+
+    static void insert(String nucleotide)
+    {
+        check(RadixTree.insertDNA(nucleotide, tree), "insertDNA", nucleotide);
+        model.merge(nucleotide, 1, Integer::sum);
+        compare("insertDNA", nucleotide);
+    }
+
+
+    static void delete(String nucleotide)
+    {
+        Integer count = model.get(nucleotide);
+
+        check(RadixTree.deleteDNA(nucleotide, tree) == (count != null),
+                                                    "deleteDNA", nucleotide);
+        if (count != null && count > 1)
+            model.put(nucleotide, count - 1);
+        else
+            model.remove(nucleotide);
+        compare("deleteDNA", nucleotide);
+    }
+
+
+    static void setCount(String nucleotide, int count)
+    {
+        RadixTree.setCount(nucleotide, count, tree);
+        if (count > 0)
+            model.put(nucleotide, count);
+        else
+            model.remove(nucleotide);
+        compare("setCount", nucleotide);
+    }
+
+
+    // Compares the count of the segment and the number of segments
+    static void compare(String op, String nucleotide)
+    {
+        check(RadixTree.countOf(nucleotide, tree) ==
+                    model.getOrDefault(nucleotide, 0), op, nucleotide);
+        check(RadixTree.keysInSubtree(tree) == model.size(), op, nucleotide);
+    }
+
+
+    static void check(boolean agrees, String op, String nucleotide)
+    {
+        if (agrees)
+            return;
+        System.out.println("Tree and model disagree after " + op + " " +
+                        nucleotide + ": countOf " +
+                        RadixTree.countOf(nucleotide, tree) + ", expected " +
+                        model.getOrDefault(nucleotide, 0) + "; segments " +
+                        RadixTree.keysInSubtree(tree) + ", expected " +
+                        model.size());
+        System.exit(1);
+    }
+
+
+    static String repeat(char base, int times)
+    {
+        StringBuilder segment = new StringBuilder();
+
+        for (int i = 0; i < times; i++)
+            segment.append(base);
+        return segment.toString();
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveTask;
+
+
+//
+// Shape profiler for a radix tree. A single walk over the tree collects
+// histograms of node depth, child fan-out, prefix code length and
+// countOfDNA, the number of terminal and internal nodes, and an estimate of
+// the bytes per node for several storage layouts. The walk can be split
+// over the common ForkJoinPool, one task per subtree near the root. The
+// dummy root node itself is not counted.
+//
+// The result is printed as JSON or CSV so that it can be compared across
+// releases:
+//   RadixTreeProfiler [segments] [json|csv]
+// profiles a tree of random segments.
+//
+public class RadixTreeProfiler {
+
+    // Subtrees above this level are profiled as separate parallel tasks
+    static final int PARALLEL_LEVELS = 3;
+
+    // Storage layouts for which the size of a node is estimated
+    static final String[] LAYOUTS = { "objects", "packedLabels", "flatArrays" };
+
+
+    /**
+     * Profiles the tree below root.
+     * @param root The root node of a radix tree
+     * @param parallel true to spread the walk over the common ForkJoinPool
+     * @return The profile
+     */
+    public static Profile profile(RadixTree.Node root, boolean parallel)
+    {
+        ProfileTask task = new ProfileTask(root, 0, parallel);
+
+        return parallel ? task.invoke() : task.compute();
+    }
+
+
+    static class ProfileTask extends RecursiveTask<Profile> {
+
+        static final long serialVersionUID = 1L;
+
+        final RadixTree.Node node;
+        final int level;
+        final boolean parallel;
+
+        ProfileTask(RadixTree.Node node, int level, boolean parallel)
+        {
+            this.node = node;
+            this.level = level;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected Profile compute()
+        {
+            Profile profile = new Profile();
+
+            if (!parallel || level >= PARALLEL_LEVELS)
+            {
+                walk(node, level, profile);
+                return profile;
+            }
+
+            if (level > 0)
+                profile.addNode(node, level);
+
+            ProfileTask[] tasks = new ProfileTask[RadixTree.MAX_CHILDREN];
+            for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+                if (node.childNode[i] != null)
+                    tasks[i] = new ProfileTask(node.childNode[i], level + 1,
+                                                                    parallel);
+            invokeAll(Arrays.stream(tasks).filter(t -> t != null)
+                                          .toArray(ProfileTask[]::new));
+
+            for (ProfileTask task : tasks)
+                if (task != null)
+                    profile.merge(task.join());
+            return profile;
+        }
+    }
+
+
+    static void walk(RadixTree.Node node, int level, Profile profile)
+    {
+        if (level > 0)
+            profile.addNode(node, level);
+
+        for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+            if (node.childNode[i] != null)
+                walk(node.childNode[i], level + 1, profile);
+    }
+
+
+    //
+    // Histograms collected by the profiler. A histogram is a long array
+    // indexed by the measured value, except for countOfDNA, which is
+    // bucketed by powers of two: bucket k holds counts in [2^k, 2^(k+1)).
+    //
+    public static class Profile {
+
+        long nodes;
+        long terminalNodes;       // endOfDNA is set
+        long internalNodes;       // endOfDNA is not set and has children
+        long emptyNodes;          // No DNA segment left in the subtree
+        long totalPrefixLength;
+        long[] depth = new long[0];
+        long[] fanOut = new long[RadixTree.MAX_CHILDREN + 1];
+        long[] prefixLength = new long[0];
+        long[] countOfDNA = new long[0];
+        long[] layoutBytes = new long[LAYOUTS.length];
+
+        void addNode(RadixTree.Node node, int level)
+        {
+            int children = 0;
+            for (int i = 0; i < RadixTree.MAX_CHILDREN; i++)
+                if (node.childNode[i] != null)
+                    children++;
+
+            int codeLen = RadixTree.prefixCodeLength(node);
+
+            nodes++;
+            totalPrefixLength += codeLen;
+            depth = increment(depth, level);
+            fanOut[children]++;
+            prefixLength = increment(prefixLength, codeLen);
+
+            if (node.endOfDNA)
+            {
+                terminalNodes++;
+                countOfDNA = increment(countOfDNA,
+                        31 - Integer.numberOfLeadingZeros(
+                                            Math.max(node.countOfDNA, 1)));
+            }
+            else if (children > 0)
+                internalNodes++;
+            if (node.keysInSubtree == 0)
+                emptyNodes++;
+
+            for (int i = 0; i < LAYOUTS.length; i++)
+                layoutBytes[i] += estimateBytes(LAYOUTS[i], codeLen);
+        }
+
+        void merge(Profile other)
+        {
+            nodes += other.nodes;
+            terminalNodes += other.terminalNodes;
+            internalNodes += other.internalNodes;
+            emptyNodes += other.emptyNodes;
+            totalPrefixLength += other.totalPrefixLength;
+            depth = add(depth, other.depth);
+            fanOut = add(fanOut, other.fanOut);
+            prefixLength = add(prefixLength, other.prefixLength);
+            countOfDNA = add(countOfDNA, other.countOfDNA);
+            layoutBytes = add(layoutBytes, other.layoutBytes);
+        }
+
+        static long[] increment(long[] histogram, int value)
+        {
+            if (value >= histogram.length)
+                histogram = Arrays.copyOf(histogram,
+                                Math.max(value + 1, 2 * histogram.length));
+            histogram[value]++;
+            return histogram;
+        }
+
+        static long[] add(long[] sum, long[] other)
+        {
+            if (other.length > sum.length)
+                sum = Arrays.copyOf(sum, other.length);
+            for (int i = 0; i < other.length; i++)
+                sum[i] += other[i];
+            return sum;
+        }
+
+        // Histograms grow by doubling; drop the unused tail
+        static long[] trim(long[] histogram)
+        {
+            int length = histogram.length;
+            while (length > 0 && histogram[length - 1] == 0)
+                length--;
+            return Arrays.copyOf(histogram, length);
+        }
+
+        public double bytesPerNode(String layout)
+        {
+            int i = Arrays.asList(LAYOUTS).indexOf(layout);
+            return nodes == 0 || i < 0 ? 0 : (double) layoutBytes[i] / nodes;
+        }
+
+        public String toJson()
+        {
+            StringBuilder json = new StringBuilder();
+
+            json.append("{\n");
+            json.append("  \"nodes\": ").append(nodes).append(",\n");
+            json.append("  \"terminalNodes\": ").append(terminalNodes)
+                                                            .append(",\n");
+            json.append("  \"internalNodes\": ").append(internalNodes)
+                                                            .append(",\n");
+            json.append("  \"emptyNodes\": ").append(emptyNodes)
+                                                            .append(",\n");
+            json.append("  \"meanPrefixLength\": ").append(nodes == 0 ? 0 :
+                        (double) totalPrefixLength / nodes).append(",\n");
+            json.append("  \"depth\": ").append(Arrays.toString(
+                                                trim(depth))).append(",\n");
+            json.append("  \"fanOut\": ").append(Arrays.toString(fanOut))
+                                                            .append(",\n");
+            json.append("  \"prefixLength\": ").append(Arrays.toString(
+                                        trim(prefixLength))).append(",\n");
+            json.append("  \"countOfDNALog2\": ").append(Arrays.toString(
+                                        trim(countOfDNA))).append(",\n");
+            json.append("  \"bytesPerNode\": {");
+            for (int i = 0; i < LAYOUTS.length; i++)
+                json.append(i == 0 ? " " : ", ").append('"')
+                    .append(LAYOUTS[i]).append("\": ")
+                    .append(String.format("%.1f", bytesPerNode(LAYOUTS[i])));
+            json.append(" }\n");
+            json.append("}\n");
+            return json.toString();
+        }
+
+        public String toCsv()
+        {
+            StringBuilder csv = new StringBuilder("metric,bucket,value\n");
+
+            csv.append("nodes,,").append(nodes).append('\n');
+            csv.append("terminalNodes,,").append(terminalNodes).append('\n');
+            csv.append("internalNodes,,").append(internalNodes).append('\n');
+            csv.append("emptyNodes,,").append(emptyNodes).append('\n');
+            appendCsv(csv, "depth", trim(depth));
+            appendCsv(csv, "fanOut", fanOut);
+            appendCsv(csv, "prefixLength", trim(prefixLength));
+            appendCsv(csv, "countOfDNALog2", trim(countOfDNA));
+            for (String layout : LAYOUTS)
+                csv.append("bytesPerNode,").append(layout).append(',')
+                   .append(String.format("%.1f", bytesPerNode(layout)))
+                   .append('\n');
+            return csv.toString();
+        }
+
+        static void appendCsv(StringBuilder csv, String metric,
+                                                        long[] histogram)
+        {
+            for (int i = 0; i < histogram.length; i++)
+                csv.append(metric).append(',').append(i).append(',')
+                   .append(histogram[i]).append('\n');
+        }
+    }
+
+
+    /**
+     * Estimates the heap bytes of one node with a prefix code of codeLen
+     * bases, on a 64 bit JVM with compressed references and compact
+     * strings:
+     *   objects       The current layout: a Node object, its childNode
+     *                 array and a String holding one byte per base.
+     *   packedLabels  Same, but the prefix code is a byte array holding
+     *                 2 bits per base instead of a String.
+     *   flatArrays    All nodes in shared arrays (one child index per
+     *                 base, countOfDNA, keysInSubtree, maxCountInSubtree,
+     *                 label offset and length as ints, subtreeHash as a
+     *                 long) with the labels packed 2 bits per base into
+     *                 one shared array, so no object headers at all.
+     * @param layout One of LAYOUTS
+     * @param codeLen Length of the prefix code of the node
+     * @return Estimated bytes
+     */
+    static long estimateBytes(String layout, int codeLen)
+    {
+        // Header, endOfDNA, countOfDNA, keysInSubtree, maxCountInSubtree,
+        // subtreeHash, childNode and prefixCode
+        long node = align(12 + 1 + 4 + 4 + 4 + 8 + 4 + 4);
+        long children = align(16 + 4 * RadixTree.MAX_CHILDREN);
+        long packed = DnaCodec.packedLength(codeLen);
+
+        switch (layout)
+        {
+            case "objects":
+                return node + children + align(12 + 4 + 4 + 1 + 4)
+                                                    + align(16 + codeLen);
+            case "packedLabels":
+                return node + children + align(16 + packed);
+            case "flatArrays":
+                return 4 * (RadixTree.MAX_CHILDREN + 5) + 8 + packed;
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+    }
+
+
+    static long align(long bytes)
+    {
+        return (bytes + 7) & ~7L;
+    }
+
+
+    public static void main(String[] args)
+    {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        boolean csv = args.length > 1 && args[1].equalsIgnoreCase("csv");
+
+        Random random = new Random(42);
+        RadixTree.Node tree = new RadixTree.Node();
+        tree.prefixCode = "";
+        for (int i = 0; i < segments; i++)
+            RadixTree.insertDNA(RadixTree.generateRandomDNA(random), tree);
+
+        Profile profile = profile(tree, true);
+        System.out.print(csv ? profile.toCsv() : profile.toJson());
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+//
+// Serves one radix tree to local clients over TCP or a Unix domain socket,
+// so that several services can share a single copy of a reference tree.
+//
+// Every connection is handled by its own thread, a virtual thread when the
+// JVM has them (Java 21 and later) and a platform thread otherwise. Clients
+// may pipeline: send any number of requests without waiting for the
+// replies. The server reads whatever has arrived, runs all complete
+// requests as one batch and answers them, in order, with a single write.
+// Consecutive reads in a batch share one acquisition of the read lock, and
+// consecutive writes one acquisition of the write lock.
+//
+// Protocol. Segments are sent packed like in DnaCodec, as
+// [varint length in bases][packed bases]. A request is
+//   [op][segment]            for INSERT, FIND, DELETE and COUNT
+//   [op][segment][varint n]  for PREFIX, which lists at most n segments
+// and a reply starts with a status byte, OK, NOT_FOUND or ERROR:
+//   INSERT   OK, or ERROR if the segment is empty or has letters outside
+//            the alphabet; the tree is then unchanged
+//   FIND     OK if the segment is in the tree, else NOT_FOUND
+//   DELETE   OK if the segment was deleted, else NOT_FOUND
+//   COUNT    OK [varint countOfDNA], which is 0 for a missing segment
+//   PREFIX   OK [varint segments with the prefix][varint m][m segments]
+// An unknown op or a malformed request, eg, a negative length, gets ERROR
+// and the connection is closed; a rejected INSERT leaves it open.
+//
+// With a log, the replies to a batch that has writes are sent only after
+// RadixTreeLog.sync has made its records durable, so a write acked with OK
+// survives a crash. The writes of all connections that sync at the same
+// time share one fsync.
+//
+// Usage: RadixTreeServer [tcp:[host:]port | unix:path] [log directory]
+// Without a log directory the tree is kept in memory only.
+//
+public class RadixTreeServer implements Closeable {
+
+    static final byte INSERT = 1;
+    static final byte FIND = 2;
+    static final byte DELETE = 3;
+    static final byte COUNT = 4;
+    static final byte PREFIX = 5;
+
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte ERROR = 2;
+
+    static final String DEFAULT_ADDRESS = "tcp:7411";
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    // Largest request the server accepts, so that a broken client cannot
+    // make it allocate without bound
+    static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+
+    final RadixTree.Node tree;
+    final RadixTreeLog log;           // null if the tree is not logged
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    ServerSocketChannel serverChannel;
+    ExecutorService connections;
+    Thread acceptor;
+    Path socketFile;                  // Unix domain socket to remove on close
+    volatile boolean closed;
+
+
+    /**
+     * Creates a server for a tree. Inserts and deletes go through log when
+     * one is given.
+     * @param tree The root node of the radix tree to be served
+     * @param log The log of tree, or null
+     */
+    public RadixTreeServer(RadixTree.Node tree, RadixTreeLog log)
+    {
+        this.tree = tree;
+        this.log = log;
+    }
+
+
+    /**
+     * Starts accepting connections.
+     * @param address tcp:[host:]port or unix:path; port 0 picks a free port
+     * @throws IOException If the address cannot be bound
+     */
+    public void start(String address) throws IOException
+    {
+        SocketAddress socketAddress = parseAddress(address);
+
+        if (socketAddress instanceof UnixDomainSocketAddress)
+        {
+            socketFile = ((UnixDomainSocketAddress) socketAddress).getPath();
+            Files.deleteIfExists(socketFile);
+            serverChannel =
+                        ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else
+            serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(socketAddress);
+
+        connections = newConnectionExecutor();
+        acceptor = new Thread(this::acceptConnections, "radixtree-server");
+        acceptor.start();
+    }
+
+
+    /**
+     * Returns the address the server is bound to, in the form accepted by
+     * start and RadixTreeClient.connect.
+     * @return The address, eg, tcp:127.0.0.1:7411
+     * @throws IOException If the server is not started
+     */
+    public String address() throws IOException
+    {
+        SocketAddress bound = serverChannel.getLocalAddress();
+
+        if (bound instanceof InetSocketAddress)
+        {
+            InetSocketAddress inet = (InetSocketAddress) bound;
+            return "tcp:" + inet.getAddress().getHostAddress() + ":" +
+                                                            inet.getPort();
+        }
+        return "unix:" + ((UnixDomainSocketAddress) bound).getPath();
+    }
+
+
+    /**
+     * Parses tcp:[host:]port or unix:path. TCP listens on the loopback
+     * interface unless a host is given.
+     */
+    static SocketAddress parseAddress(String address)
+    {
+        if (address.startsWith("unix:"))
+            return UnixDomainSocketAddress.of(address.substring(5));
+        if (address.startsWith("tcp:"))
+        {
+            String hostPort = address.substring(4);
+            int colon = hostPort.lastIndexOf(':');
+
+            if (colon < 0)
+                return new InetSocketAddress("127.0.0.1",
+                                                Integer.parseInt(hostPort));
+            return new InetSocketAddress(hostPort.substring(0, colon),
+                            Integer.parseInt(hostPort.substring(colon + 1)));
+        }
+        throw new IllegalArgumentException("Address must be tcp:[host:]port " +
+                                                "or unix:path: " + address);
+    }
+
+
+    /**
+     * Returns an executor that runs every connection on a new virtual
+     * thread. Virtual threads are looked up by reflection, so that the
+     * server still builds and runs on Java 17, where it falls back to a
+     * pool of platform threads.
+     */
+    static ExecutorService newConnectionExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool(task ->
+            {
+                Thread thread = new Thread(task, "radixtree-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+
+    void acceptConnections()
+    {
+        while (!closed)
+        {
+            try
+            {
+                SocketChannel channel = serverChannel.accept();
+
+                if (socketFile == null)
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connections.execute(() -> serve(channel));
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                    System.out.println("Could not accept a connection: " +
+                                                            e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Reads batches of requests from a connection and answers them until the
+     * client closes it.
+     */
+    void serve(SocketChannel channel)
+    {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        ByteBuffer[] out = { ByteBuffer.allocate(BUFFER_BYTES) };
+        List<Request> batch = new ArrayList<>();
+
+        try (SocketChannel client = channel)
+        {
+            while (!closed && client.read(in) >= 0)
+            {
+                in.flip();
+                boolean valid = parse(in, batch);
+                in.compact();
+
+                // A request larger than the buffer needs a bigger buffer
+                if (!in.hasRemaining())
+                {
+                    if (in.capacity() >= MAX_REQUEST_BYTES)
+                        break;
+                    in = RadixTreeLog.grow(in, in.capacity());
+                }
+
+                execute(batch, out);
+                batch.clear();
+                if (!valid)
+                    out[0] = put(out[0], ERROR);
+
+                out[0].flip();
+                while (out[0].hasRemaining())
+                    client.write(out[0]);
+                out[0].clear();
+
+                if (!valid)
+                    break;
+            }
+        }
+        catch (IOException e)
+        {
+            // The client went away; nothing to answer
+        }
+    }
+
+
+    // A request taken apart; key is the unpacked segment
+    static class Request {
+
+        final byte op;
+        final String key;
+        final int limit;
+
+        Request(byte op, String key, int limit)
+        {
+            this.op = op;
+            this.key = key;
+            this.limit = limit;
+        }
+
+        boolean isWrite()
+        {
+            return op == INSERT || op == DELETE;
+        }
+    }
+
+
+    /**
+     * Takes every complete request out of in and adds it to batch. An
+     * incomplete request at the end is left in in.
+     * @return false if in holds a request with an unknown op, or one that is
+     *         malformed
+     */
+    static boolean parse(ByteBuffer in, List<Request> batch)
+    {
+        while (in.hasRemaining())
+        {
+            in.mark();
+            try
+            {
+                byte op = in.get();
+                if (op < INSERT || op > PREFIX)
+                    return false;
+
+                String key = readSegment(in);
+                int limit = (op == PREFIX) ? DnaCodec.readVarInt(in) : 0;
+                if (limit < 0)
+                    return false;
+                batch.add(new Request(op, key, limit));
+            }
+            catch (BufferUnderflowException e)
+            {
+                in.reset();
+                return true;
+            }
+            catch (IOException e)
+            {
+                // A bad varint or segment length
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    static String readSegment(ByteBuffer in) throws IOException
+    {
+        int dnaLen = DnaCodec.readVarInt(in);
+        int packedLen = DnaCodec.packedLength(dnaLen);
+
+        if (dnaLen < 0)
+            throw new IOException("Negative segment length");
+        if (packedLen > MAX_REQUEST_BYTES)
+            throw new IOException("Segment too long");
+        if (in.remaining() < packedLen)
+            throw new BufferUnderflowException();
+
+        String key = DnaCodec.unpack(in.array(),
+                                    in.arrayOffset() + in.position(), dnaLen);
+        in.position(in.position() + packedLen);
+        return key;
+    }
+
+
+    static ByteBuffer writeSegment(ByteBuffer out, String key)
+    {
+        byte[] packed = DnaCodec.pack(key);
+
+        out = ensure(out, 5 + packed.length);
+        DnaCodec.writeVarInt(out, key.length());
+        out.put(packed);
+        return out;
+    }
+
+
+    /**
+     * Runs a batch of requests and appends the replies to out[0]. Runs of
+     * reads and runs of writes each take the lock once. The FIND and COUNT
+     * requests of a run of reads are looked up together with countAll,
+     * which overlaps their cache misses. If the batch has writes, they are
+     * synced to the log before returning, outside the lock.
+     */
+    void execute(List<Request> batch, ByteBuffer[] out) throws IOException
+    {
+        int next = 0;
+        boolean wrote = false;
+
+        while (next < batch.size())
+        {
+            boolean write = batch.get(next).isWrite();
+            int end = next;
+
+            while (end < batch.size() && batch.get(end).isWrite() == write)
+                end++;
+
+            Lock held = write ? lock.writeLock() : lock.readLock();
+            held.lock();
+            try
+            {
+                if (write)
+                    for (int i = next; i < end; i++)
+                        out[0] = write(batch.get(i), out[0]);
+                else
+                    out[0] = read(batch.subList(next, end), out[0]);
+            }
+            finally
+            {
+                held.unlock();
+            }
+            wrote = wrote || write;
+            next = end;
+        }
+
+        // Group commit: one sync for every write of the batch
+        if (wrote && log != null)
+            log.sync();
+    }
+
+
+    ByteBuffer write(Request request, ByteBuffer out) throws IOException
+    {
+        if (request.op == INSERT)
+        {
+            boolean inserted = (log != null)
+                            ? log.insertDNA(request.key)
+                            : RadixTree.insertDNA(request.key, tree);
+            return put(out, inserted ? OK : ERROR);
+        }
+
+        boolean deleted = (log != null)
+                        ? log.deleteDNA(request.key)
+                        : RadixTree.deleteDNA(request.key, tree);
+        return put(out, deleted ? OK : NOT_FOUND);
+    }
+
+
+    ByteBuffer read(List<Request> requests, ByteBuffer out)
+    {
+        String[] lookups = new String[requests.size()];
+        int[] counts = new int[requests.size()];
+        int found = 0;
+
+        for (Request request : requests)
+            if (request.op != PREFIX)
+                lookups[found++] = request.key;
+        RadixTree.countAll(Arrays.copyOf(lookups, found), counts,
+                                                                    tree);
+
+        int lookup = 0;
+        for (Request request : requests)
+        {
+            if (request.op == FIND)
+                out = put(out, counts[lookup++] > 0 ? OK : NOT_FOUND);
+            else if (request.op == COUNT)
+            {
+                out = put(out, OK);
+                DnaCodec.writeVarInt(out, counts[lookup++]);
+            }
+            else
+                out = prefix(request, out);
+        }
+        return out;
+    }
+
+
+    ByteBuffer prefix(Request request, ByteBuffer out)
+    {
+        out = put(out, OK);
+        DnaCodec.writeVarInt(out, RadixTree.countWithPrefix(request.key, tree));
+
+        // Segments are listed into a separate buffer, because their number
+        // is only known at the end
+        ByteBuffer keys = ByteBuffer.allocate(BUFFER_BYTES);
+        Iterator<String> matches = RadixTree.withPrefix(request.key, tree);
+        int listed = 0;
+
+        while (listed < request.limit && matches.hasNext())
+        {
+            keys = writeSegment(keys, matches.next());
+            listed++;
+        }
+
+        keys.flip();
+        out = ensure(out, 5 + keys.remaining());
+        DnaCodec.writeVarInt(out, listed);
+        out.put(keys);
+        return out;
+    }
+
+
+    // Appends a status byte, with room for a varint after it
+    static ByteBuffer put(ByteBuffer out, byte status)
+    {
+        out = ensure(out, 1 + 5);
+        out.put(status);
+        return out;
+    }
+
+
+    static ByteBuffer ensure(ByteBuffer out, int needed)
+    {
+        return out.remaining() < needed ? RadixTreeLog.grow(out, needed) : out;
+    }
+
+
+    /**
+     * Stops accepting connections and closes the open ones. The tree and
+     * its log are left open.
+     * @throws IOException If the listening socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        serverChannel.close();
+        connections.shutdownNow();
+        if (socketFile != null)
+            Files.deleteIfExists(socketFile);
+    }
+
+
+    /**
+     * Serves a tree until the JVM is stopped.
+     * @param args The address to listen on, and optionally a log directory
+     *             to recover the tree from and log changes to
+     * @throws IOException If the log or the address cannot be opened
+     */
+    public static void main(String[] args) throws IOException
+    {
+        String address = args.length > 0 ? args[0] : DEFAULT_ADDRESS;
+        RadixTreeLog log = null;
+        RadixTree.Node tree;
+
+        if (args.length > 1)
+        {
+            log = RadixTreeLog.open(Paths.get(args[1]));
+            tree = log.tree();
+        }
+        else
+        {
+            tree = new RadixTree.Node();
+            tree.prefixCode = "";
+        }
+
+        RadixTreeServer server = new RadixTreeServer(tree, log);
+        server.start(address);
+        System.out.println("Serving " + RadixTree.keysInSubtree(tree) +
+                            " unique segments on " + server.address());
+
+        // On shutdown, leave a fresh checkpoint behind like the menu does
+        final RadixTreeLog treeLog = log;
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            try
+            {
+                server.close();
+                if (treeLog != null)
+                {
+                    server.lock.writeLock().lock();
+                    treeLog.checkpoint();
+                    treeLog.close();
+                }
+            }
+            catch (IOException e)
+            {
+                System.out.println("Could not close the log: " +
+                                                        e.getMessage());
+            }
+        }));
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+//
+// Generalized suffix tree over long DNA sequences, for substring queries
+// such as "does any stored genome contain X?". It is a radix tree of all
+// suffixes of all sequences, built with Ukkonen's algorithm in time linear
+// in the total length of the sequences.
+//
+// Nodes have the same compressed edges as RadixTree.Node, one child per
+// letter of the alphabet, but the label of an edge is not a copy of the
+// bases. It is a reference (sequence, start, end) into the sequences,
+// which are kept one byte per base. Leaf edges end at the end of their
+// sequence, so every label stays inside a single sequence.
+//
+// Every sequence is followed by a terminator that matches nothing, not even
+// the terminator of another sequence. This makes every suffix end in a
+// leaf. Leaves whose edge is only the terminator hang in the extra last
+// child slot of their parent, chained through their (otherwise unused)
+// suffix links.
+//
+// Sequences can be added at any time; queries see all the sequences added
+// so far. A SuffixTree is not safe for use by several threads while
+// sequences are added.
+//
+public class SuffixTree {
+
+    // End of a leaf edge: the end of its sequence, including the terminator
+    static final int OPEN = -1;
+
+    // Code of the terminator of a sequence
+    static final int TERMINATOR = -1;
+
+    static class Node {
+
+        int    sequence;     // Sequence the label of the edge points into
+        int    start;        // First base of the label in the sequence
+        int    end;          // One past the last base of the label, or OPEN
+        Node   suffixLink;   // Chains terminator leaves for a leaf
+        Node[] childNode;    // null for a leaf
+        int    leaves;       // Number of leaves (suffixes) in this subtree
+
+        /**
+         * @param slots Number of child slots; 0 for a leaf
+         */
+        Node(int sequence, int start, int end, int slots)
+        {
+            this.sequence = sequence;
+            this.start = start;
+            this.end = end;
+            if (slots == 0)
+                leaves = 1;
+            else
+                childNode = new Node[slots];
+        }
+    }
+
+    // A child for every letter of the alphabet; internal nodes have one
+    // more slot for the terminator leaves
+    final int maxChildren;
+
+    final Alphabet alphabet;
+    final List<byte[]> sequences = new ArrayList<>(); // Bases as letter codes
+    final Node root;
+
+    int  nodes = 1;          // Nodes in the tree, including the root
+    long totalBases;
+    boolean countsValid = true;
+
+    // Ukkonen's active point while a sequence is added
+    int  building = -1;      // Sequence being added, or -1
+    int  phase;              // Base of that sequence being added
+    Node activeNode;
+    int  activeEdge;         // Position of the first base of the active edge
+    int  activeLength;
+    int  remainder;          // Suffixes still to be added explicitly
+    Node needSuffixLink;
+
+
+    /**
+     * Creates an empty suffix tree over the alphabet of RadixTree.
+     */
+    public SuffixTree()
+    {
+        alphabet = RadixTree.alphabet;
+        maxChildren = alphabet.size();
+        root = new Node(-1, 0, 0, maxChildren + 1);
+    }
+
+
+    /**
+     * Adds a sequence and all of its suffixes to the tree.
+     * @param sequence A sequence made up of letters of the alphabet
+     * @return The id of the sequence, which is the number of sequences that
+     *         were added before it
+     */
+    public int addSequence(String sequence)
+    {
+        byte[] codes = new byte[sequence.length()];
+
+        for (int i = 0; i < codes.length; i++)
+        {
+            int code = alphabet.indexOf(sequence.charAt(i));
+            if (code < 0)
+                throw new IllegalArgumentException("Invalid base " +
+                            sequence.charAt(i) + " at position " + i);
+            codes[i] = (byte) code;
+        }
+
+        building = sequences.size();
+        sequences.add(codes);
+        activeNode = root;
+        activeLength = 0;
+        remainder = 0;
+        countsValid = false;
+
+        // Position codes.length is the terminator
+        for (phase = 0; phase <= codes.length; phase++)
+            extend(symbol(building, phase));
+
+        totalBases = totalBases + codes.length;
+        building = -1;
+        return sequences.size() - 1;
+    }
+
+
+    /**
+     * One phase of Ukkonen's algorithm: adds the base at position phase of
+     * the sequence being built to every suffix that still has to be made
+     * explicit. Leaf edges grow by themselves because their end is OPEN.
+     * @param base Letter code of the base, or TERMINATOR
+     */
+    void extend(int base)
+    {
+        needSuffixLink = null;
+        remainder++;
+
+        while (remainder > 0)
+        {
+            if (activeLength == 0)
+                activeEdge = phase;
+
+            int  first = symbol(building, activeEdge);
+            Node next = (first == TERMINATOR)
+                                    ? null : activeNode.childNode[first];
+
+            if (next == null)
+            {
+                // No edge starts with the base; hang a new leaf here
+                addChild(activeNode, newLeaf());
+                addSuffixLink(activeNode);
+            }
+            else
+            {
+                // Skip over whole edges on the way to the active point
+                int edgeLength = edgeLength(next);
+                if (activeLength >= edgeLength)
+                {
+                    activeEdge = activeEdge + edgeLength;
+                    activeLength = activeLength - edgeLength;
+                    activeNode = next;
+                    continue;
+                }
+
+                // The suffix is already in the tree, implicitly. This and
+                // the remaining shorter suffixes wait for a later phase.
+                int nextBase = symbol(next.sequence, next.start + activeLength);
+                if (base != TERMINATOR && nextBase == base)
+                {
+                    activeLength++;
+                    addSuffixLink(activeNode);
+                    break;
+                }
+
+                // Split the edge at the active point
+                Node split = new Node(next.sequence, next.start,
+                                next.start + activeLength, maxChildren + 1);
+                nodes++;
+                activeNode.childNode[first] = split;
+                next.start = next.start + activeLength;
+                addChild(split, next);
+                addChild(split, newLeaf());
+                addSuffixLink(split);
+            }
+
+            remainder--;
+            if (activeNode == root && activeLength > 0)
+            {
+                activeLength--;
+                activeEdge = phase - remainder + 1;
+            }
+            else
+                activeNode = activeNode.suffixLink != null
+                                                ? activeNode.suffixLink : root;
+        }
+    }
+
+
+    // Creates the leaf for the suffix ending with the current phase
+    Node newLeaf()
+    {
+        nodes++;
+        return new Node(building, phase, OPEN, 0);
+    }
+
+
+    // Attaches child below parent, in the slot of the first base of its edge
+    void addChild(Node parent, Node child)
+    {
+        int first = symbol(child.sequence, child.start);
+
+        if (first == TERMINATOR)
+        {
+            child.suffixLink = parent.childNode[maxChildren];
+            parent.childNode[maxChildren] = child;
+        }
+        else
+            parent.childNode[first] = child;
+    }
+
+
+    // Links the internal node created last in this phase to node
+    void addSuffixLink(Node node)
+    {
+        if (needSuffixLink != null)
+            needSuffixLink.suffixLink = node;
+        needSuffixLink = node;
+    }
+
+
+    /**
+     * Returns the letter code of a base, or TERMINATOR for the position just
+     * past the end of the sequence.
+     */
+    int symbol(int sequence, int position)
+    {
+        byte[] codes = sequences.get(sequence);
+
+        return position == codes.length ? TERMINATOR : codes[position];
+    }
+
+
+    // One past the last base of the edge into node
+    int edgeEnd(Node node)
+    {
+        if (node.end != OPEN)
+            return node.end;
+        if (node.sequence == building)
+            return phase + 1;
+        return sequences.get(node.sequence).length + 1;
+    }
+
+
+    int edgeLength(Node node)
+    {
+        return edgeEnd(node) - node.start;
+    }
+
+
+    /**
+     * Follows pattern down from the root.
+     * @param pattern A DNA segment
+     * @param depth Receives the length of the path from the root to the
+     *              returned node, or null
+     * @return The highest node whose path starts with pattern, so that the
+     *         leaves below it are exactly the occurrences of pattern; null
+     *         if pattern does not occur or is empty
+     */
+    Node locate(String pattern, int[] depth)
+    {
+        int  patternLen = pattern.length();
+        int  matched = 0;
+        Node node = root;
+
+        if (patternLen == 0)
+            return null;
+
+        while (matched < patternLen)
+        {
+            int code = alphabet.indexOf(pattern.charAt(matched));
+            if (code < 0 || node.childNode == null)
+                return null;
+
+            Node child = node.childNode[code];
+            if (child == null)
+                return null;
+
+            // Compare the label of the edge with the rest of the pattern
+            byte[] codes = sequences.get(child.sequence);
+            int edgeEnd = Math.min(edgeEnd(child), codes.length);
+            int position = child.start;
+
+            while (position < edgeEnd && matched < patternLen)
+            {
+                code = alphabet.indexOf(pattern.charAt(matched));
+                if (codes[position] != code)
+                    return null;
+                position++;
+                matched++;
+            }
+
+            if (matched < patternLen && position < edgeEnd(child))
+                return null;  // Pattern runs into the terminator
+            if (depth != null)
+                depth[0] = depth[0] + edgeLength(child);
+            node = child;
+        }
+
+        return node;
+    }
+
+
+    /**
+     * Finds whether any of the sequences contains pattern.
+     * @param pattern A DNA segment
+     * @return true if pattern is a substring of a sequence in the tree; else
+     *         false
+     */
+    public boolean containsSubstring(String pattern)
+    {
+        return locate(pattern, null) != null;
+    }
+
+
+    /**
+     * Returns the number of times pattern occurs in the sequences,
+     * overlapping occurrences included. Takes time proportional to the
+     * length of pattern, once the leaf counts are up to date.
+     * @param pattern A DNA segment
+     * @return The number of occurrences of pattern
+     */
+    public int countOccurrences(String pattern)
+    {
+        Node node = locate(pattern, null);
+
+        if (node == null)
+            return 0;
+        if (!countsValid)
+            countLeaves();
+        return node.leaves;
+    }
+
+
+    /**
+     * Lists where pattern occurs in the sequences.
+     * @param pattern A DNA segment
+     * @param limit Largest number of occurrences to return
+     * @return Up to limit occurrences, ordered by sequence and offset. If
+     *         pattern occurs more often, which ones are returned is not
+     *         specified.
+     */
+    public List<Occurrence> findOccurrences(String pattern, int limit)
+    {
+        List<Occurrence> occurrences = new ArrayList<>();
+        int[] depth = new int[1];
+        Node node = locate(pattern, depth);
+
+        if (node == null || limit <= 0)
+            return occurrences;
+
+        // Walk the subtree without recursion; repetitive sequences make
+        // paths as long as the sequences themselves
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        stack.push(node);
+        depths.push(depth[0]);
+
+        while (!stack.isEmpty() && occurrences.size() < limit)
+        {
+            Node current = stack.pop();
+            int  pathLen = depths.pop();
+
+            if (current.childNode == null)
+            {
+                // The path of a leaf is its suffix plus the terminator
+                int length = sequences.get(current.sequence).length;
+                occurrences.add(new Occurrence(current.sequence,
+                                                    length + 1 - pathLen));
+                continue;
+            }
+
+            for (int i = 0; i < maxChildren; i++)
+                if (current.childNode[i] != null)
+                {
+                    stack.push(current.childNode[i]);
+                    depths.push(pathLen + edgeLength(current.childNode[i]));
+                }
+            for (Node leaf = current.childNode[maxChildren]; leaf != null;
+                                                        leaf = leaf.suffixLink)
+            {
+                stack.push(leaf);
+                depths.push(pathLen + 1);
+            }
+        }
+
+        Collections.sort(occurrences);
+        return occurrences;
+    }
+
+
+    /**
+     * Brings the leaf count of every internal node up to date. Internal
+     * nodes are listed in preorder, so going through the list backwards
+     * visits every node after its children.
+     */
+    void countLeaves()
+    {
+        List<Node> internal = new ArrayList<>();
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+
+        while (!stack.isEmpty())
+        {
+            Node node = stack.pop();
+            internal.add(node);
+            for (int i = 0; i < maxChildren; i++)
+                if (node.childNode[i] != null &&
+                                        node.childNode[i].childNode != null)
+                    stack.push(node.childNode[i]);
+        }
+
+        for (int j = internal.size() - 1; j >= 0; j--)
+        {
+            Node node = internal.get(j);
+            int  leaves = 0;
+
+            for (int i = 0; i < maxChildren; i++)
+                if (node.childNode[i] != null)
+                    leaves = leaves + node.childNode[i].leaves;
+            for (Node leaf = node.childNode[maxChildren]; leaf != null;
+                                                        leaf = leaf.suffixLink)
+                leaves++;
+            node.leaves = leaves;
+        }
+        countsValid = true;
+    }
+
+
+    /**
+     * Returns the number of nodes in the tree, including the root.
+     * @return The node count
+     */
+    public int nodeCount()
+    {
+        return nodes;
+    }
+
+
+    /**
+     * Returns the number of bases in all sequences, without terminators.
+     * @return The total length of the sequences
+     */
+    public long totalBases()
+    {
+        return totalBases;
+    }
+
+
+    /**
+     * A position where a pattern occurs: the id of the sequence returned by
+     * addSequence and the offset of the first base of the match.
+     */
+    public static class Occurrence implements Comparable<Occurrence> {
+
+        public final int sequence;
+        public final int offset;
+
+        Occurrence(int sequence, int offset)
+        {
+            this.sequence = sequence;
+            this.offset = offset;
+        }
+
+        @Override
+        public int compareTo(Occurrence other)
+        {
+            if (sequence != other.sequence)
+                return Integer.compare(sequence, other.sequence);
+            return Integer.compare(offset, other.offset);
+        }
+
+        @Override
+        public String toString()
+        {
+            return sequence + ":" + offset;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package radixtree;
+
+import java.util.Random;
+
+
+//
+// Measures the build time and memory of a SuffixTree over random sequences
+// of a growing total length, and the time of containsSubstring and
+// countOccurrences for patterns that occur and patterns that do not. Memory
+// is the growth of the used heap after a full garbage collection, so the
+// benchmark should run alone in its JVM, eg, with -Xmx4g.
+//
+// Usage: SuffixTreeBenchmark [megabases] [sequences] [queries]
+//
+public class SuffixTreeBenchmark {
+
+    static final int PATTERN_LENGTH = 20;
+
+    // Keeps the JIT from dropping the lookups
+    static long sink;
+
+    public static void main(String[] args)
+    {
+        int megabases = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int sequences = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+        System.out.println("bases,sequences,nodes,buildMs,heapBytes," +
+                    "bytesPerBase,containsHitNs,containsMissNs,countNs");
+
+        for (int size = 1; size <= megabases; size = size * 2)
+            run(size * 1000000, sequences, queries);
+    }
+
+
+    static void run(int bases, int sequences, int queries)
+    {
+        Random random = new Random(42);
+        String symbols = RadixTree.alphabet.symbols;
+        String[] genomes = new String[sequences];
+
+        for (int s = 0; s < sequences; s++)
+        {
+            char[] genome = new char[bases / sequences];
+            for (int i = 0; i < genome.length; i++)
+                genome[i] = symbols.charAt(random.nextInt(symbols.length()));
+            genomes[s] = new String(genome);
+        }
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        SuffixTree tree = new SuffixTree();
+        for (String genome : genomes)
+            tree.addSequence(genome);
+        long buildNanos = System.nanoTime() - start;
+
+        // Includes the copy of the bases kept by the tree, one byte each
+        long heapBytes = usedHeap() - heapBefore;
+
+        // Hits are taken from the sequences, misses are random patterns
+        // that are checked not to occur
+        String[] hits = new String[1024];
+        String[] misses = new String[1024];
+        for (int i = 0; i < hits.length; i++)
+        {
+            String genome = genomes[random.nextInt(sequences)];
+            int offset = random.nextInt(genome.length() - PATTERN_LENGTH);
+            hits[i] = genome.substring(offset, offset + PATTERN_LENGTH);
+            do
+                misses[i] = randomPattern(random, symbols);
+            while (tree.containsSubstring(misses[i]));
+        }
+
+        long containsHit = time(tree, hits, queries, false);
+        long containsMiss = time(tree, misses, queries, false);
+        long count = time(tree, hits, queries, true);
+
+        System.out.printf("%d,%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f%n",
+                    tree.totalBases(), sequences, tree.nodeCount(),
+                    buildNanos / 1000000, heapBytes,
+                    (double) heapBytes / tree.totalBases(),
+                    (double) containsHit / queries,
+                    (double) containsMiss / queries, (double) count / queries);
+    }
+
+
+    static String randomPattern(Random random, String symbols)
+    {
+        char[] pattern = new char[PATTERN_LENGTH];
+
+        for (int i = 0; i < PATTERN_LENGTH; i++)
+            pattern[i] = symbols.charAt(random.nextInt(symbols.length()));
+        return new String(pattern);
+    }
+
+
+    // Best of three runs of queries lookups
+    static long time(SuffixTree tree, String[] patterns, int queries,
+                                                            boolean count)
+    {
+        long best = Long.MAX_VALUE;
+
+        for (int run = 0; run < 3; run++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++)
+            {
+                String pattern = patterns[i & (patterns.length - 1)];
+                if (count)
+                    sink = sink + tree.countOccurrences(pattern);
+                else if (tree.containsSubstring(pattern))
+                    sink++;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+
+    static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}